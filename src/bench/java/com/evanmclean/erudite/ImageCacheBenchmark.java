@@ -0,0 +1,153 @@
+package com.evanmclean.erudite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.evanmclean.evlib.io.Folders;
+import com.evanmclean.evlib.util.Colls;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * Benchmarks {@link ImageHandlerFactory} end to end against images served
+ * from a local HTTP server: a cache hit (just saving the image to a file) and
+ * a cache miss (retrieving and processing the image.)
+ * </p>
+ *
+ * <p>
+ * The images are served without an extension in the URL or a
+ * <code>Content-Type</code>, so a miss also sniffs the content.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ImageCacheBenchmark
+{
+  @Param( { "png", "jpeg" } )
+  public String format;
+
+  @Param( { "small", "medium" } )
+  public String size;
+
+  @Param( { "false", "true" } )
+  public boolean toPng;
+
+  private final AtomicLong counter = new AtomicLong();
+  private HttpServer server;
+  private ExecutorService executor;
+  private File folder;
+  private ImageHandler handler;
+  private String url;
+
+  @Benchmark
+  public String hit() throws IOException
+  {
+    return save(url);
+  }
+
+  @Benchmark
+  public String miss() throws IOException
+  {
+    return save(url + "?n=" + counter.incrementAndGet());
+  }
+
+  @Setup
+  public void setup() throws IOException
+  {
+    final Map<String, byte[]> images = Colls.newHashMap();
+    images.put("/image", ImageFixtures.image(format, size));
+
+    // Otherwise small responses are held up by delayed acknowledgements.
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+    server = HttpServer.create(new InetSocketAddress(
+        InetAddress.getLoopbackAddress(), 0), 50);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle( final HttpExchange exchange ) throws IOException
+      {
+        final byte[] content = images.get(exchange.getRequestURI().getPath());
+        try
+        {
+          if ( content == null )
+          {
+            exchange.sendResponseHeaders(404, -1L);
+            return;
+          }
+          exchange.sendResponseHeaders(200, content.length);
+          final OutputStream out = exchange.getResponseBody();
+          out.write(content);
+          out.close();
+        }
+        finally
+        {
+          exchange.close();
+        }
+      }
+    });
+    executor = Executors.newFixedThreadPool(4);
+    server.setExecutor(executor);
+    server.start();
+
+    url = "http://127.0.0.1:" + server.getAddress().getPort() + "/image";
+    folder = Files.createTempDir();
+    // Small cache, so the misses don't fill up memory.
+    handler = ImageHandlerFactory.create(false, toPng, 10, 10, 1, 16L, -1L)
+        .get(folder, null);
+    save(url); // Prime the cache for hits.
+  }
+
+  @TearDown
+  public void teardown()
+  {
+    server.stop(0);
+    executor.shutdownNow();
+    Folders.delQuietly(folder);
+  }
+
+  /**
+   * Get the image and delete the file it was saved to, so the folder doesn't
+   * fill up and slow down picking unique file names.
+   *
+   * @param image_url
+   * @return The file name.
+   * @throws IOException
+   */
+  private String save( final String image_url ) throws IOException
+  {
+    final String name = handler.image(image_url);
+    new File(folder, name).delete();
+    return name;
+  }
+}
@@ -0,0 +1,93 @@
+package com.evanmclean.erudite;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the image work done while loading an image: checking the size
+ * from the header with {@link ImageProbe} against a full decode, and
+ * converting to PNG.
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ImageDecodeBenchmark
+{
+  @Param( { "png", "jpeg", "gif" } )
+  public String format;
+
+  @Param( { "small", "medium", "large" } )
+  public String size;
+
+  private byte[] content;
+
+  /**
+   * Decode the whole image to check its size (how the minimum size check used
+   * to work.)
+   *
+   * @return The width.
+   * @throws IOException
+   */
+  @Benchmark
+  public int decode() throws IOException
+  {
+    return ImageIO.read(new ByteArrayInputStream(content)).getWidth();
+  }
+
+  /**
+   * Check the size from the header.
+   *
+   * @return The width.
+   * @throws IOException
+   */
+  @Benchmark
+  public int probe() throws IOException
+  {
+    return ImageProbe.probe(content).getWidth();
+  }
+
+  @Setup
+  public void setup() throws IOException
+  {
+    content = ImageFixtures.image(format, size);
+  }
+
+  /**
+   * Decode and convert to PNG (as for <code>image.to.png</code>.)
+   *
+   * @return The PNG content.
+   * @throws IOException
+   */
+  @Benchmark
+  public byte[] toPng() throws IOException
+  {
+    final BufferedImage image = ImageIO.read(new ByteArrayInputStream(content));
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", out);
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,117 @@
+package com.evanmclean.erudite;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Generates the images used by the image benchmarks, so we don't need to keep
+ * large binary files in the source tree. The images are a gradient with some
+ * noise and shapes, so they compress about as well as a photo or diagram.
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+public final class ImageFixtures
+{
+  /**
+   * Generate an image.
+   *
+   * @param format
+   *        The image format to produce (as known to {@link ImageIO}, e.g.,
+   *        <code>png</code>, <code>jpeg</code>, <code>gif</code> or
+   *        <code>bmp</code>.)
+   * @param size
+   *        One of <code>small</code> (a web bug or icon), <code>medium</code>
+   *        or <code>large</code> (a hero photo.)
+   * @return The image content.
+   * @throws IOException
+   */
+  public static byte[] image( final String format, final String size )
+    throws IOException
+  {
+    final int width;
+    final int height;
+    if ( "small".equals(size) )
+    {
+      width = 64;
+      height = 48;
+    }
+    else if ( "medium".equals(size) )
+    {
+      width = 800;
+      height = 600;
+    }
+    else if ( "large".equals(size) )
+    {
+      width = 3000;
+      height = 2000;
+    }
+    else
+    {
+      throw new IllegalArgumentException("Unknown size: " + size);
+    }
+
+    final BufferedImage image = new BufferedImage(width, height,
+        BufferedImage.TYPE_INT_RGB);
+    final Random rnd = new Random(width ^ height);
+    final Graphics2D gr = image.createGraphics();
+    try
+    {
+      gr.setPaint(new GradientPaint(0, 0, Color.ORANGE, width, height,
+          Color.BLUE));
+      gr.fillRect(0, 0, width, height);
+      for ( int xi = 0; xi < 40; ++xi )
+      {
+        gr.setColor(new Color(rnd.nextInt(0xffffff)));
+        gr.fillOval(rnd.nextInt(width), rnd.nextInt(height),
+          rnd.nextInt(width / 4 + 1), rnd.nextInt(height / 4 + 1));
+      }
+    }
+    finally
+    {
+      gr.dispose();
+    }
+    for ( int yi = 0; yi < height; yi += 2 )
+      for ( int xi = 0; xi < width; xi += 3 )
+        image.setRGB(xi, yi, image.getRGB(xi, yi) ^ rnd.nextInt(0x0f0f0f));
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if ( !ImageIO.write(image, format, out) )
+      throw new IOException("No image writer for " + format);
+    return out.toByteArray();
+  }
+
+  /**
+   * The header of a lossy WebP image (we can't write WebP with
+   * {@link ImageIO}, but the header is all that is sniffed.)
+   *
+   * @return The start of a WebP image.
+   */
+  public static byte[] webpHeader()
+  {
+    final byte[] buf = new byte[64];
+    System.arraycopy("RIFF".getBytes(), 0, buf, 0, 4);
+    System.arraycopy("WEBPVP8 ".getBytes(), 0, buf, 8, 8);
+    buf[23] = (byte) 0x9d;
+    buf[24] = (byte) 0x01;
+    buf[25] = (byte) 0x2a;
+    buf[26] = (byte) (800 & 0xff);
+    buf[27] = (byte) (800 >> 8);
+    buf[28] = (byte) (600 & 0xff);
+    buf[29] = (byte) (600 >> 8);
+    return buf;
+  }
+
+  private ImageFixtures()
+  {
+    // empty
+  }
+}
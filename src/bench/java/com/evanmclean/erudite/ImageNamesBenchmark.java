@@ -0,0 +1,79 @@
+package com.evanmclean.erudite;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks how {@link ImageNames} works out the name and extension of an
+ * image: from the URL, the <code>Content-Type</code> header, or sniffing the
+ * content (with the magic number table, or MimeUtil2 for anything else, such
+ * as BMP.)
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ImageNamesBenchmark
+{
+  @Param( { "png", "jpeg", "gif", "webp", "bmp" } )
+  public String format;
+
+  private byte[] content;
+
+  @Benchmark
+  public String contentExtension()
+  {
+    return ImageNames.contentExtension(content);
+  }
+
+  @Benchmark
+  public String contentTypeExtension()
+  {
+    return ImageNames.contentTypeExtension("image/" + format + "; qs=0.8");
+  }
+
+  @Benchmark
+  public String cookName()
+  {
+    return ImageNames.cookName("2018-\u00dcber_Hero Image (Final) " + format);
+  }
+
+  @Benchmark
+  public String name()
+  {
+    return ImageNames.name("https://cdn.example.com/uploads/2018/05/"
+        + "Hero-Image_final." + format + "?w=1200&h=800&fit=crop");
+  }
+
+  @Setup
+  public void setup() throws IOException
+  {
+    content = "webp".equals(format) ? ImageFixtures.webpHeader()
+        : ImageFixtures.image(format, "small");
+  }
+
+  @Benchmark
+  public String urlExtension()
+  {
+    return ImageNames.extension("https://cdn.example.com/uploads/2018/05/"
+        + "Hero-Image_final." + format + "?w=1200&h=800&fit=crop");
+  }
+}
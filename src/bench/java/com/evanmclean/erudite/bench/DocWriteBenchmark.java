@@ -0,0 +1,64 @@
+package com.evanmclean.erudite.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.evanmclean.erudite.Erudite;
+import com.evanmclean.erudite.misc.Doc;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
+
+/**
+ * Benchmarks serialising a fully processed article with {@link Doc}, both to
+ * a character stream and encoded as UTF&ndash;8.
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class DocWriteBenchmark
+{
+  @Param( { "instapaper-short", "instapaper-long", "pocket" } )
+  public String fixture;
+
+  private Document doc;
+
+  @Setup
+  public void setup() throws IOException
+  {
+    doc = new Erudite().process(Fixtures.article(fixture),
+      new Fixtures.FixtureSource(), Fixtures.template(),
+      new Fixtures.FixtureImageHandler(), true, Fixtures.hackerNewsUrls(1));
+  }
+
+  @Benchmark
+  public void writeBytes() throws IOException
+  {
+    Doc.write(doc, ByteStreams.nullOutputStream());
+  }
+
+  @Benchmark
+  public void writeChars() throws IOException
+  {
+    Doc.write(doc, CharStreams.nullWriter());
+  }
+}
@@ -0,0 +1,137 @@
+package com.evanmclean.erudite.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.evanmclean.erudite.misc.HtmlSlice;
+
+/**
+ * <p>
+ * Benchmarks getting the <code>div#story</code> out of an Instapaper text
+ * page, by parsing the whole page and with {@link HtmlSlice}. The fixture
+ * articles are wrapped in the sort of navigation and inline scripts a real
+ * page has.
+ * </p>
+ *
+ * <p>
+ * The setup checks that both ways give the same element (and the same
+ * absolute links) for the page, and for some awkward pages (nested and
+ * unclosed elements, markup in attributes, comments and scripts, and a
+ * <code>&lt;base href&gt;</code>.)
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ExtractBenchmark
+{
+  private static final String BASE_URI = "https://www.instapaper.com/read/1";
+  private static final String[] AWKWARD = {
+      "<div id=\"story\"><div><div>a</div></div><p>b</div><div>after</div>",
+      "<div id=story><p>one<p>two<ul><li>x<li>y</ul></div><p>after",
+      "<div title=\"a > b\" id='story'>x<div data-x='</div>'>y</div></div>",
+      "<DIV ID=\"story\"><Div>x</DIV>y</div>z",
+      "<div id=story>a<!-- </div> -->b</div>c",
+      "<div id=story><script>var s = '</div>';</script>c</div>d",
+      "<div id=story><style>p:before { content: '</div>' }</style>c</div>",
+      "<div id=story>a < b, c <3 d</div>e",
+      "<div id=story><p>never closed",
+      "<div id=story><span><div>inner</span></div>after</div>",
+      "<div id=story/>x</div>",
+      "<html><head><base href=\"https://example.com/dir/\"></head><body>"
+          + "<div id=story><a href=\"page.html\">a</a>"
+          + "<img src=\"/img.png\"></div></body></html>",
+      "<html><head><base target=_blank><base href=/other/></head><body>"
+          + "<div id=story><a href=\"x\">x</a></div></body></html>" };
+
+  @Param( { "instapaper-short", "instapaper-long" } )
+  public String fixture;
+
+  private String page;
+
+  @Setup
+  public void setup() throws IOException
+  {
+    final String html = Fixtures.html(fixture);
+    final int start = html.indexOf("<div id=\"story\">");
+    final int end = html.lastIndexOf("</body>");
+
+    final StringBuilder buff = new StringBuilder();
+    buff.append("<!DOCTYPE html><html><head><title>Article</title>\n");
+    buff.append("<script type=\"text/javascript\">\n");
+    for ( int xi = 0; xi < 2000; ++xi )
+      buff.append("var config").append(xi)
+          .append(" = { \"key\": \"<div id='story'>\", \"value\": ")
+          .append(xi).append(" };\n");
+    buff.append("</script>\n</head><body>\n<div id=\"nav\"><ul>\n");
+    for ( int xi = 0; xi < 200; ++xi )
+      buff.append("<li><a href=\"/u/folder/").append(xi)
+          .append("\">Folder ").append(xi).append("</a></li>\n");
+    buff.append("</ul></div>\n<!-- <div id=\"story\"> -->\n");
+    buff.append(html, start, end);
+    buff.append("<div id=\"footer\"><p>Footer</p></div>\n");
+    buff.append("<script>document.write('</div>');</script>\n");
+    buff.append("</body></html>\n");
+    page = buff.toString();
+
+    check(page);
+    for ( final String awkward : AWKWARD )
+      check(awkward);
+  }
+
+  @Benchmark
+  public Element parse()
+  {
+    return Jsoup.parse(page, BASE_URI).getElementById("story");
+  }
+
+  @Benchmark
+  public Element slice()
+  {
+    return HtmlSlice.getElementById(page, "story", BASE_URI);
+  }
+
+  private void check( final String html )
+  {
+    final String parsed = describe(Jsoup.parse(html, BASE_URI).getElementById(
+      "story"));
+    final String sliced = describe(HtmlSlice.getElementById(html, "story",
+      BASE_URI));
+    if ( !parsed.equals(sliced) )
+      throw new IllegalStateException("Slice doesn't match the full parse of "
+          + ((html.length() > 100) ? fixture : html) + "\nParsed: " + parsed
+          + "\nSliced: " + sliced);
+  }
+
+  private String describe( final Element el )
+  {
+    if ( el == null )
+      return "null";
+    final StringBuilder buff = new StringBuilder(el.outerHtml());
+    for ( final Element link : el.select("[href], [src]") )
+      buff.append('\n').append(link.absUrl(link.hasAttr("href") ? "href"
+          : "src"));
+    return buff.toString();
+  }
+}
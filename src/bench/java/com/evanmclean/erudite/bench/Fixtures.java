@@ -0,0 +1,215 @@
+package com.evanmclean.erudite.bench;
+
+import java.io.IOException;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.parser.Tag;
+
+import com.evanmclean.erudite.Article;
+import com.evanmclean.erudite.Articles;
+import com.evanmclean.erudite.ImageHandler;
+import com.evanmclean.erudite.Source;
+import com.evanmclean.erudite.Template;
+import com.evanmclean.evlib.charset.Charsets;
+import com.evanmclean.evlib.lang.Str;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Resources;
+
+/**
+ * Fixture articles and stand&ndash;ins for the sources and image handler, so
+ * the benchmarks only measure the rendering code and never touch the network.
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+final class Fixtures
+{
+  /**
+   * An article whose text is parsed once from a fixture file, and copied each
+   * time it is asked for (as a real source does when it caches the text.)
+   */
+  static class FixtureArticle implements Article
+  {
+    private final String name;
+    private final Element content;
+
+    FixtureArticle( final String name, final Element content )
+    {
+      this.name = name;
+      this.content = content;
+    }
+
+    @Override
+    public String getOriginalUrl()
+    {
+      return "https://example.com/articles/" + name;
+    }
+
+    @Override
+    public String getSourceUrl()
+    {
+      return "https://www.instapaper.com/read/" + name;
+    }
+
+    @Override
+    public String getSummary()
+    {
+      return Str.EMPTY;
+    }
+
+    @Override
+    public String getTitle()
+    {
+      return "Fixture article " + name;
+    }
+
+    @Override
+    public Element text()
+    {
+      return content.clone();
+    }
+  }
+
+  /**
+   * Returns a local path for every image without retrieving anything.
+   */
+  static class FixtureImageHandler implements ImageHandler
+  {
+    @Override
+    public String image( final String source )
+    {
+      final int pos = source.lastIndexOf('/');
+      return "images/" + source.substring(pos + 1);
+    }
+  }
+
+  /**
+   * A source that has no articles of its own, and ignores completion.
+   */
+  static class FixtureSource implements Source
+  {
+    @Override
+    public Articles getArticles()
+    {
+      return new Articles(ImmutableList.<Article> of(),
+          ImmutableList.<String> of());
+    }
+
+    @Override
+    public String getName()
+    {
+      return "Instapaper";
+    }
+
+    @Override
+    public String getViaHtml()
+    {
+      return "<a href=\"https://www.instapaper.com/\">Instapaper</a>";
+    }
+
+    @Override
+    public void onComplete( final Article article )
+    {
+      // empty
+    }
+
+    @Override
+    public void onError( final Article article )
+    {
+      // empty
+    }
+  }
+
+  private static final String PREFIX = "com/evanmclean/erudite/bench/articles/";
+
+  /**
+   * Load a fixture article.
+   *
+   * @param name
+   *        The name of the fixture file, without the <code>.html</code>
+   *        extension.
+   * @return The article.
+   * @throws IOException
+   */
+  static FixtureArticle article( final String name ) throws IOException
+  {
+    return new FixtureArticle(name, content(html(name)));
+  }
+
+  /**
+   * Extract the article content from a page the same way the sources do: the
+   * single element in the body, or the whole body wrapped in a
+   * <code>div</code>.
+   *
+   * @param html
+   *        The HTML of the page.
+   * @return The article content.
+   */
+  static Element content( final String html )
+  {
+    final Document doc = Jsoup.parse(html);
+    final Element story = doc.getElementById("story");
+    if ( story != null )
+      return story;
+
+    final Element body = doc.body();
+    if ( body.children().size() == 1 )
+      return body.child(0);
+
+    final Element div = new Element(Tag.valueOf("div"), Str.EMPTY);
+    for ( final Node node : body.childNodesCopy() )
+      div.appendChild(node);
+    return div;
+  }
+
+  /**
+   * The raw HTML of a fixture article.
+   *
+   * @param name
+   *        The name of the fixture file, without the <code>.html</code>
+   *        extension.
+   * @return The HTML.
+   * @throws IOException
+   */
+  static String html( final String name ) throws IOException
+  {
+    return Resources.toString(Resources.getResource(PREFIX + name + ".html"),
+      Charsets.UTF8);
+  }
+
+  /**
+   * Hacker News discussion URLs to give an article.
+   *
+   * @param count
+   *        How many URLs.
+   * @return The URLs.
+   */
+  static ImmutableList<String> hackerNewsUrls( final int count )
+  {
+    final ImmutableList.Builder<String> bldr = ImmutableList.builder();
+    for ( int xi = 0; xi < count; ++xi )
+      bldr.add("https://news.ycombinator.com/item?id=" + (17000000 + xi));
+    return bldr.build();
+  }
+
+  /**
+   * The template stored in the application's jar file.
+   *
+   * @return The template.
+   * @throws IOException
+   */
+  static Template template() throws IOException
+  {
+    return new Template(Resources.asByteSource(
+      Resources.getResource("com/evanmclean/erudite/template.html")));
+  }
+
+  private Fixtures()
+  {
+    // empty
+  }
+}
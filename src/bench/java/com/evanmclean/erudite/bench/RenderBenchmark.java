@@ -0,0 +1,72 @@
+package com.evanmclean.erudite.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.evanmclean.erudite.Erudite;
+import com.evanmclean.erudite.ImageHandler;
+import com.evanmclean.erudite.Source;
+import com.evanmclean.erudite.Template;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Benchmarks {@link Erudite#process(com.evanmclean.erudite.Article, Source,
+ * Template, ImageHandler, boolean, ImmutableList)} over the fixture articles,
+ * with and without footnotes and Hacker News links.
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class RenderBenchmark
+{
+  @Param( { "instapaper-short", "instapaper-long", "pocket" } )
+  public String fixture;
+
+  @Param( { "true", "false" } )
+  public boolean footnotes;
+
+  @Param( { "0", "1", "3" } )
+  public int hackerNews;
+
+  private final Erudite erudite = new Erudite();
+  private final Source source = new Fixtures.FixtureSource();
+  private final ImageHandler imageHandler = new Fixtures.FixtureImageHandler();
+  private Fixtures.FixtureArticle article;
+  private Template template;
+  private ImmutableList<String> hackerNewsUrls;
+
+  @Benchmark
+  public Document process() throws IOException
+  {
+    return erudite.process(article, source, template, imageHandler, footnotes,
+      hackerNewsUrls);
+  }
+
+  @Setup
+  public void setup() throws IOException
+  {
+    article = Fixtures.article(fixture);
+    template = Fixtures.template();
+    hackerNewsUrls = Fixtures.hackerNewsUrls(hackerNews);
+  }
+}
@@ -0,0 +1,111 @@
+package com.evanmclean.erudite.calibre;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.evanmclean.evlib.charset.Charsets;
+import com.evanmclean.evlib.io.Folders;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+/**
+ * <p>
+ * Benchmarks running <code>ebook-convert</code> and <code>calibredb add</code>
+ * through {@link EbookConverter} and {@link CalibreAdder}, using the stub
+ * scripts in <code>src/bench/stubs</code> instead of Calibre. This measures the
+ * cost of starting the process, slurping its output and checking the result,
+ * with the given amount of output and time spent in the process.
+ * </p>
+ *
+ * <p>
+ * Run with more threads (e.g., <code>-t 4</code>) to see how well running
+ * several conversions at once scales. The stubs are found with the
+ * <code>erudite.stubs</code> system property (set by <code>ant bench</code>.)
+ * The stubs are shell scripts, so this does not run on Windows.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class SubprocessBenchmark
+{
+  /**
+   * Seconds the stub spends &ldquo;converting&rdquo;.
+   */
+  @Param( { "0", "0.05" } )
+  public String delay;
+
+  /**
+   * Lines of output from <code>ebook-convert</code> on top of the usual
+   * twenty or so.
+   */
+  @Param( { "20", "2000" } )
+  public int lines;
+
+  private File folder;
+  private File inFile;
+  private File outFile;
+  private EbookConverter converter;
+  private CalibreAdder adder;
+
+  @Benchmark
+  public void add() throws IOException
+  {
+    adder.add(outFile, "Benchmark Article", "Someone on the Web");
+  }
+
+  @Benchmark
+  public void convert() throws IOException
+  {
+    converter.convert("Benchmark Article", inFile, outFile,
+      "<p>A summary of the article.</p>");
+  }
+
+  @Setup
+  public void setup() throws IOException
+  {
+    final File stubs = new File(System.getProperty("erudite.stubs",
+      "src/bench/stubs"));
+    final ImmutableList<String> options = ImmutableList.of("--stub-delay="
+        + delay, "--stub-lines=" + lines);
+
+    folder = Files.createTempDir();
+    inFile = new File(folder, "temp.html");
+    outFile = new File(folder, "temp.epub");
+    Files.asCharSink(inFile, Charsets.UTF8).write(
+      "<html><body><p>The article.</p></body></html>\n");
+    Files.copy(inFile, outFile);
+
+    converter = new EbookConverter(new File(stubs, "ebook-convert").getPath(),
+        "kindle", "Someone on the Web", options);
+    adder = new CalibreAdder(new File(stubs, "calibredb").getPath(),
+        new File(folder, "library").getPath(), options);
+  }
+
+  @TearDown
+  public void teardown()
+  {
+    Folders.delQuietly(folder);
+  }
+}
@@ -0,0 +1,258 @@
+package com.evanmclean.erudite.cli;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Map;
+
+import com.evanmclean.erudite.TemplateFactory;
+import com.evanmclean.erudite.instapaper.Instapaper;
+import com.evanmclean.erudite.logback.ConsoleLogging;
+import com.evanmclean.erudite.logback.Logback;
+import com.evanmclean.erudite.pocket.Pocket;
+import com.evanmclean.erudite.sessions.Session;
+import com.evanmclean.erudite.sessions.SessionIO;
+import com.evanmclean.evlib.charset.Charsets;
+import com.evanmclean.evlib.io.Folders;
+import com.evanmclean.evlib.util.Colls;
+import com.google.common.io.Files;
+
+/**
+ * <p>
+ * An end to end load test: runs {@link Main#process} against a {@link StandIn}
+ * for Instapaper or Pocket, saving every article as HTML (with images and a
+ * Hacker News search), or converting it to EPUB with stub Calibre programs,
+ * and archiving it afterwards. Then reports the throughput, the per-article
+ * latency as seen by the stand-in, and the peak resident set size of the
+ * process.
+ * </p>
+ *
+ * <p>
+ * Run with <code>ant loadtest</code>. Options are given as
+ * <code>name=value</code> arguments with <code>-Dloadtest.args=...</code>:
+ * </p>
+ *
+ * <dl>
+ * <dt><code>source</code></dt>
+ * <dd><code>instapaper</code> (the default) or <code>pocket</code>.</dd>
+ * <dt><code>articles</code></dt>
+ * <dd>The number of articles to process (default 100.)</dd>
+ * <dt><code>threads</code></dt>
+ * <dd>The number of worker threads (<code>worker.threads</code>, default
+ * 4.)</dd>
+ * <dt><code>latency</code></dt>
+ * <dd>Average delay of each response from the stand-in, in milliseconds
+ * (default 50.)</dd>
+ * <dt><code>errors</code></dt>
+ * <dd>The fraction of requests for content, images and searches that fail
+ * (default 0.)</dd>
+ * <dt><code>seed</code></dt>
+ * <dd>Seed for the random latencies and errors (default 1.)</dd>
+ * <dt><code>convert</code></dt>
+ * <dd>If <code>true</code>, convert the articles to EPUB and add them to a
+ * Calibre library instead of saving them as HTML, using the stub
+ * <code>ebook-convert</code> and <code>calibredb</code> scripts in
+ * <code>src/bench/stubs</code> (found with the <code>erudite.stubs</code>
+ * system property.)</dd>
+ * <dt><code>stubdelay</code></dt>
+ * <dd>Seconds each run of a stub script takes (default 0.5.)</dd>
+ * <dt><code>config</code></dt>
+ * <dd>Extra configuration lines to add, separated by <code>;</code> (e.g.,
+ * <code>config=image.to.png=true;footnotes=false</code>.)</dd>
+ * <dt><code>keep</code></dt>
+ * <dd>If <code>true</code>, keep the work folder (with the saved articles and
+ * log file) instead of deleting it.</dd>
+ * </dl>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+public final class LoadTest
+{
+  public static void main( final String[] args ) throws Exception
+  {
+    final Map<String, String> opts = Colls.newHashMap();
+    for ( final String arg : args )
+    {
+      final int pos = arg.indexOf('=');
+      if ( pos <= 0 )
+        throw new IllegalArgumentException("Expected name=value: " + arg);
+      opts.put(arg.substring(0, pos), arg.substring(pos + 1));
+    }
+
+    final String source = get(opts, "source", "instapaper");
+    final int num_articles = Integer.parseInt(get(opts, "articles", "100"));
+    final int threads = Integer.parseInt(get(opts, "threads", "4"));
+    final int latency = Integer.parseInt(get(opts, "latency", "50"));
+    final double error_rate = Double.parseDouble(get(opts, "errors", "0"));
+    final long seed = Long.parseLong(get(opts, "seed", "1"));
+    final boolean keep = Boolean.parseBoolean(get(opts, "keep", "false"));
+    final boolean convert = Boolean.parseBoolean(get(opts, "convert",
+      "false"));
+    final String stub_delay = get(opts, "stubdelay", "0.5");
+
+    final StandIn standin = new StandIn(num_articles, latency, error_rate,
+        seed);
+    standin.start();
+    System.setProperty("erudite.instapaper.url", standin.getUrl()
+        + "/instapaper");
+    System.setProperty("erudite.pocket.url", standin.getUrl() + "/pocket/");
+    System.setProperty("erudite.hnsearch.url", standin.getUrl()
+        + "/algolia/api/v1/search_by_date");
+
+    final File folder = Files.createTempDir();
+    int ret = 1;
+    try
+    {
+      final File session_file = new File(folder, "erudite.session");
+      final File config_file = new File(folder, "erudite.properties");
+      final File save_folder = new File(folder, "saved");
+      Folders.mks(save_folder);
+      Logback.configure(new File(folder, "erudite.log"), ConsoleLogging.SILENT);
+
+      final Session session;
+      if ( "instapaper".equals(source) )
+        session = Instapaper.login("bench@example.com", "secret");
+      else if ( "pocket".equals(source) )
+        session = Pocket.getAuthoriser("bench", "secret", "bench-key")
+            .getSession();
+      else
+        throw new IllegalArgumentException("Unknown source: " + source);
+      SessionIO.write(session_file, session);
+
+      final StringBuilder config = new StringBuilder();
+      if ( convert )
+      {
+        final File stubs = new File(System.getProperty("erudite.stubs",
+          "src/bench/stubs"));
+        config.append("processors = epub\n") //
+            .append("epub.type = ebookconvert\n") //
+            .append("epub.filetype = epub\n") //
+            .append("epub.option = --stub-delay=").append(stub_delay)
+            .append('\n') //
+            .append("epub.then = calibre\n") //
+            .append("epub.then.calibredb.option = --stub-delay=")
+            .append(stub_delay).append('\n') //
+            .append("ebookconvert.prog = ")
+            .append(new File(stubs, "ebook-convert").getPath()).append('\n') //
+            .append("calibredb.prog = ")
+            .append(new File(stubs, "calibredb").getPath()).append('\n') //
+            .append("calibredb.library = ")
+            .append(new File(folder, "library").getPath()).append('\n');
+      }
+      else
+      {
+        config.append("processors = save\n") //
+            .append("save.type = save\n") //
+            .append("saveto = ").append(save_folder.getPath()).append('\n');
+      }
+      config.append("hnsearch = true\n") //
+          .append("on.complete = archive\n") //
+          .append("on.error = none\n") //
+          .append("worker.threads = ").append(threads).append('\n');
+      for ( final String line : get(opts, "config", "").split(";") )
+        config.append(line).append('\n');
+      Files.asCharSink(config_file, Charsets.UTF8).write(config);
+
+      System.out.println("Processing " + num_articles + " articles from "
+          + source + " with " + threads + " threads, " + latency
+          + "ms latency and " + error_rate + " error rate.");
+      final long start = System.nanoTime();
+      ret = Main.process(session_file, config_file, new TemplateFactory(
+          Args.getInternalTemplate()), true);
+      final long elapsed = System.nanoTime() - start;
+
+      final long[] latencies = standin.getLatencies();
+      final double secs = elapsed / 1e9;
+      System.out.println();
+      System.out.println(String.format("Articles completed: %d of %d",
+        latencies.length, num_articles));
+      System.out.println(String.format("Elapsed:            %.2fs", secs));
+      System.out.println(String.format("Throughput:         %.2f articles/s",
+        latencies.length / secs));
+      System.out.println(String.format("Latency p50:        %.1fms",
+        percentile(latencies, 50) / 1e6));
+      System.out.println(String.format("Latency p99:        %.1fms",
+        percentile(latencies, 99) / 1e6));
+      System.out.println(String.format("Latency max:        %.1fms",
+        percentile(latencies, 100) / 1e6));
+      System.out.println(String.format("Requests:           %d (%d failed)",
+        standin.getRequests(), standin.getErrors()));
+      System.out.println("Peak RSS:           " + peakRss());
+      if ( keep )
+        System.out.println("Work folder:        " + folder.getPath());
+    }
+    finally
+    {
+      standin.stop();
+      if ( !keep )
+        Folders.delQuietly(folder);
+    }
+    System.exit(ret);
+  }
+
+  private static String get( final Map<String, String> opts,
+      final String name, final String def )
+  {
+    final String val = opts.get(name);
+    return (val != null) ? val : def;
+  }
+
+  /**
+   * The peak resident set size (<code>VmHWM</code>) of this process.
+   *
+   * @return The peak RSS, or &ldquo;unknown&rdquo; if not running on Linux.
+   */
+  private static String peakRss()
+  {
+    final File status = new File("/proc/self/status");
+    if ( !status.canRead() )
+      return "unknown";
+    try
+    {
+      final BufferedReader in = new BufferedReader(new InputStreamReader(
+          new FileInputStream(status), Charsets.UTF8));
+      try
+      {
+        String line;
+        while ( (line = in.readLine()) != null )
+          if ( line.startsWith("VmHWM:") )
+            return line.substring(6).trim();
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+    catch ( IOException ex )
+    {
+      // fall through
+    }
+    return "unknown";
+  }
+
+  /**
+   * Nearest rank percentile.
+   *
+   * @param sorted
+   *        The sorted values.
+   * @param pct
+   *        The percentile (1 to 100.)
+   * @return The value, or zero if there are none.
+   */
+  private static long percentile( final long[] sorted, final int pct )
+  {
+    if ( sorted.length <= 0 )
+      return 0L;
+    final int rank = (int) Math.ceil(pct / 100.0 * sorted.length);
+    return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+  }
+
+  private LoadTest()
+  {
+    // empty
+  }
+}
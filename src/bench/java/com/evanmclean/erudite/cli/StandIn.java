@@ -0,0 +1,538 @@
+package com.evanmclean.erudite.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.evanmclean.erudite.ImageFixtures;
+import com.evanmclean.evlib.charset.Charsets;
+import com.evanmclean.evlib.lang.Str;
+import com.evanmclean.evlib.util.Colls;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Resources;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * A local HTTP server that stands in for Instapaper, Pocket, the Hacker News
+ * search on hn.algolia.com and the image hosts, so {@link LoadTest} can run
+ * without touching the network. Each service is under its own path:
+ * </p>
+ *
+ * <ul>
+ * <li><code>/instapaper</code> &ndash; login, the Read Later folder pages (40
+ * articles to a page) with a &ldquo;Downloaded&rdquo; folder to move articles
+ * to, the text pages and the archive, move and delete links.</li>
+ * <li><code>/pocket/</code> &ndash; login, the OAuth calls,
+ * <code>v3/get</code>, <code>a/x/getArticle.php</code> and
+ * <code>v3/send</code>.</li>
+ * <li><code>/algolia</code> &ndash; the search API, which finds a discussion
+ * thread for every article.</li>
+ * <li><code>/cdn/</code> &ndash; the images in the articles.</li>
+ * </ul>
+ *
+ * <p>
+ * The article pages are the recorded fixtures used by the rendering
+ * benchmarks, with the image URLs pointed back at the stand-in. Every response
+ * is delayed by the configured latency (&plusmn;50%), and a configured
+ * fraction of the requests for article content, images and searches fail with
+ * a 503.
+ * </p>
+ *
+ * <p>
+ * The time from the first request for an article's content to the request
+ * that archives it is recorded as the latency of the article.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+final class StandIn
+{
+  private static final String FIXTURES = "com/evanmclean/erudite/bench/articles/";
+  private static final Pattern IMAGE_HOSTS = Pattern
+      .compile("https://(cdn\\.example|pocket-image-cache)\\.com/");
+  private static final int POCKET_ID = 1000;
+  private static final int INSTAPAPER_PAGE = 40;
+
+  private final int numArticles;
+  private final long latencyMicros;
+  private final double errorRate;
+  private final Random random;
+  private final ObjectMapper json = new ObjectMapper();
+  private final String shortText;
+  private final String longText;
+  private final String pocketText;
+  private final byte[] jpeg;
+  private final byte[] png;
+  private final ConcurrentMap<Integer, Long> started = new ConcurrentHashMap<Integer, Long>();
+  private final ConcurrentMap<Integer, Long> finished = new ConcurrentHashMap<Integer, Long>();
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger errors = new AtomicInteger();
+  private HttpServer server;
+  private ExecutorService executor;
+  private String url;
+
+  /**
+   * Create the stand-in (call {@link #start()} to start serving.)
+   *
+   * @param num_articles
+   *        How many articles to list.
+   * @param latency_ms
+   *        The average delay before each response, in milliseconds.
+   * @param error_rate
+   *        The fraction (0 to 1) of requests for content that fail.
+   * @param seed
+   *        Seed for the random latencies and errors.
+   * @throws IOException
+   */
+  StandIn( final int num_articles, final int latency_ms,
+      final double error_rate, final long seed ) throws IOException
+  {
+    this.numArticles = num_articles;
+    this.latencyMicros = latency_ms * 1000L;
+    this.errorRate = error_rate;
+    this.random = new Random(seed);
+    this.shortText = fixture("instapaper-short");
+    this.longText = fixture("instapaper-long");
+    this.pocketText = fixture("pocket");
+    this.jpeg = ImageFixtures.image("jpeg", "medium");
+    this.png = ImageFixtures.image("png", "small");
+  }
+
+  /**
+   * The number of requests that were failed on purpose.
+   *
+   * @return The number of injected errors.
+   */
+  int getErrors()
+  {
+    return errors.get();
+  }
+
+  /**
+   * The latencies of the articles that were archived (or deleted.)
+   *
+   * @return The latencies in nanoseconds, sorted.
+   */
+  long[] getLatencies()
+  {
+    final List<Long> list = Colls.newArrayList();
+    for ( final Map.Entry<Integer, Long> entry : finished.entrySet() )
+    {
+      final Long start = started.get(entry.getKey());
+      if ( start != null )
+        list.add(Long.valueOf(entry.getValue().longValue() - start.longValue()));
+    }
+    final long[] ret = new long[list.size()];
+    for ( int xi = 0; xi < ret.length; ++xi )
+      ret[xi] = list.get(xi).longValue();
+    Arrays.sort(ret);
+    return ret;
+  }
+
+  /**
+   * The total number of requests served.
+   *
+   * @return The number of requests.
+   */
+  int getRequests()
+  {
+    return requests.get();
+  }
+
+  /**
+   * Where the stand-in is listening.
+   *
+   * @return The base URL, without a trailing slash.
+   */
+  String getUrl()
+  {
+    return url;
+  }
+
+  void start() throws IOException
+  {
+    // Otherwise small responses are held up by delayed acknowledgements.
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+    server = HttpServer.create(new InetSocketAddress(
+        InetAddress.getLoopbackAddress(), 0), 100);
+    server.createContext("/", new HttpHandler() {
+      @SuppressWarnings( "synthetic-access" )
+      @Override
+      public void handle( final HttpExchange exchange ) throws IOException
+      {
+        try
+        {
+          requests.incrementAndGet();
+          delay();
+          dispatch(exchange);
+        }
+        catch ( InterruptedException ex )
+        {
+          Thread.currentThread().interrupt();
+        }
+        finally
+        {
+          exchange.close();
+        }
+      }
+    });
+    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread( final Runnable run )
+      {
+        final Thread thrd = new Thread(run, "stand-in");
+        thrd.setDaemon(true);
+        return thrd;
+      }
+    });
+    server.setExecutor(executor);
+    server.start();
+    url = "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  void stop()
+  {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void archived( final int idx )
+  {
+    finished.putIfAbsent(Integer.valueOf(idx), Long.valueOf(System.nanoTime()));
+  }
+
+  private void delay() throws InterruptedException
+  {
+    if ( latencyMicros <= 0 )
+      return;
+    final double factor;
+    synchronized ( random )
+    {
+      factor = 0.5 + random.nextDouble();
+    }
+    TimeUnit.MICROSECONDS.sleep((long) (latencyMicros * factor));
+  }
+
+  private void dispatch( final HttpExchange exchange ) throws IOException
+  {
+    final String path = exchange.getRequestURI().getPath();
+    Matcher mat;
+
+    // Instapaper
+    if ( path.equals("/instapaper/user/login") )
+    {
+      exchange.getResponseHeaders().add("Set-Cookie", "pfu=1234; Path=/");
+      exchange.getResponseHeaders().add("Set-Cookie", "pfp=abcd; Path=/");
+      send(exchange, "text/html", "<html><body>Logged in</body></html>");
+      return;
+    }
+    if ( path.equals("/instapaper/u") )
+    {
+      send(exchange, "text/html", instapaperFolder(1));
+      return;
+    }
+    if ( (mat = Pattern.compile("/instapaper/u/(\\d+)").matcher(path))
+        .matches() )
+    {
+      send(exchange, "text/html", instapaperFolder(Integer.parseInt(mat
+          .group(1))));
+      return;
+    }
+    if ( (mat = Pattern.compile("/instapaper/read/(\\d+)").matcher(path))
+        .matches() )
+    {
+      final int idx = Integer.parseInt(mat.group(1));
+      if ( content(exchange, idx) )
+        send(exchange, "text/html", images(((idx % 4) == 3) ? longText
+            : shortText, idx));
+      return;
+    }
+    if ( (mat = Pattern.compile(
+      "/instapaper/(skip|delete|move)/(\\d+)(/to/\\d+)?").matcher(path))
+        .matches() )
+    {
+      archived(Integer.parseInt(mat.group(2)));
+      send(exchange, "text/html", "<html><body>Done</body></html>");
+      return;
+    }
+
+    // Pocket
+    if ( path.equals("/pocket/login_process") )
+    {
+      exchange.getResponseHeaders().add("Set-Cookie", "sess_id=abcd; Path=/");
+      send(exchange, "text/html", "<html><body>Logged in</body></html>");
+      return;
+    }
+    if ( path.equals("/pocket/v3/oauth/request") )
+    {
+      send(exchange, "text/plain", "code=bench-code");
+      return;
+    }
+    if ( path.equals("/pocket/v3/oauth/authorize") )
+    {
+      send(exchange, "text/plain", "access_token=bench-token&username=bench");
+      return;
+    }
+    if ( path.equals("/pocket/v3/get") )
+    {
+      send(exchange, "application/json", pocketList());
+      return;
+    }
+    if ( path.equals("/pocket/a/x/getArticle.php") )
+    {
+      final int idx = Integer.parseInt(form(exchange).get("itemId"))
+          - POCKET_ID;
+      if ( content(exchange, idx) )
+      {
+        final Map<String, Object> article = Colls.newHashMap();
+        article.put("article", images(pocketText, idx));
+        article.put("images", Str.EMPTY);
+        send(exchange, "application/json",
+          json.writeValueAsString(ImmutableMap.of("article", article)));
+      }
+      return;
+    }
+    if ( path.equals("/pocket/v3/send") )
+    {
+      final List<?> actions = json.readValue(form(exchange).get("actions"),
+        List.class);
+      for ( final Object obj : actions )
+      {
+        final Map<?, ?> action = (Map<?, ?>) obj;
+        if ( Str.equalsOneOf(String.valueOf(action.get("action")), "archive",
+          "delete") )
+          archived(Integer.parseInt(String.valueOf(action.get("item_id")))
+              - POCKET_ID);
+      }
+      send(exchange, "application/json",
+        "{\"action_results\":[true],\"status\":1}");
+      return;
+    }
+
+    // Hacker News search
+    if ( path.equals("/algolia/api/v1/search_by_date") )
+    {
+      if ( fail(exchange) )
+        return;
+      final String query = query(exchange).get("query");
+      final Map<String, Object> hit = Colls.newHashMap();
+      hit.put("objectID", String.valueOf(17000000 + Math.abs(query.hashCode()
+          % 1000000)));
+      hit.put("url", query);
+      hit.put("created_at_i", Integer.valueOf(1500000000));
+      hit.put("num_comments", Integer.valueOf(42));
+      send(exchange, "application/json",
+        json.writeValueAsString(ImmutableMap.of("hits", Arrays.asList(hit))));
+      return;
+    }
+
+    // Images
+    if ( path.startsWith("/cdn/") )
+    {
+      if ( fail(exchange) )
+        return;
+      final byte[] image = path.endsWith(".png") ? png : jpeg;
+      exchange.sendResponseHeaders(200, image.length);
+      final OutputStream out = exchange.getResponseBody();
+      out.write(image);
+      out.close();
+      return;
+    }
+
+    exchange.sendResponseHeaders(404, -1L);
+  }
+
+  /**
+   * Note the start of an article and decide if the request for its content
+   * should fail.
+   *
+   * @param exchange
+   * @param idx
+   *        The index of the article.
+   * @return True if the content should be sent.
+   * @throws IOException
+   */
+  private boolean content( final HttpExchange exchange, final int idx )
+    throws IOException
+  {
+    if ( (idx < 0) || (idx >= numArticles) )
+    {
+      exchange.sendResponseHeaders(404, -1L);
+      return false;
+    }
+    started.putIfAbsent(Integer.valueOf(idx), Long.valueOf(System.nanoTime()));
+    return !fail(exchange);
+  }
+
+  private boolean fail( final HttpExchange exchange ) throws IOException
+  {
+    if ( errorRate <= 0.0 )
+      return false;
+    final boolean fail;
+    synchronized ( random )
+    {
+      fail = random.nextDouble() < errorRate;
+    }
+    if ( !fail )
+      return false;
+    errors.incrementAndGet();
+    exchange.sendResponseHeaders(503, -1L);
+    return true;
+  }
+
+  private String fixture( final String name ) throws IOException
+  {
+    return Resources.toString(
+      Resources.getResource(FIXTURES + name + ".html"), Charsets.UTF8);
+  }
+
+  private Map<String, String> form( final HttpExchange exchange )
+    throws IOException
+  {
+    final InputStream in = exchange.getRequestBody();
+    try
+    {
+      return params(new String(ByteStreams.toByteArray(in), Charsets.UTF8));
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  /**
+   * Point the images in an article at the stand-in. Each article gets its own
+   * images, as they would on the web.
+   *
+   * @param html
+   * @param idx
+   *        The index of the article.
+   * @return The article.
+   */
+  private String images( final String html, final int idx )
+  {
+    return IMAGE_HOSTS.matcher(html).replaceAll(url + "/cdn/" + idx + '/');
+  }
+
+  private String instapaperFolder( final int page )
+  {
+    final int first = (page - 1) * INSTAPAPER_PAGE;
+    final int last = Math.min(numArticles, first + INSTAPAPER_PAGE);
+    final StringBuilder buff = new StringBuilder(INSTAPAPER_PAGE * 600);
+    buff.append("<html><head><title>Instapaper</title></head><body>\n")
+        .append("<div id=\"article_list\">\n");
+    for ( int xi = first; xi < last; ++xi )
+      buff.append("<div class=\"article_item\">") //
+          .append("<a class=\"article_title\" href=\"/read/").append(xi)
+          .append("\">Benchmark Article ").append(xi).append("</a>") //
+          .append("<div class=\"host\"><a href=\"").append(originalUrl(xi))
+          .append("\">example.com</a></div>") //
+          .append("<div class=\"article_preview\">The preview of article ")
+          .append(xi).append(".</div>") //
+          .append("<div class=\"article_actions\">") //
+          .append("<a class=\"js_archive_single\" href=\"/skip/").append(xi)
+          .append("\">Archive</a>") //
+          .append("<a class=\"js_delete_single\" href=\"/delete/").append(xi)
+          .append("\">Delete</a>") //
+          .append("</div></div>\n");
+    buff.append("</div>\n");
+    buff.append("<div class=\"folder_link\">")
+        .append("<a href=\"/u/folder/7/Downloaded/\">Downloaded</a></div>\n");
+    if ( last < numArticles )
+      buff.append("<div class=\"paginate_older\"><a href=\"/u/")
+          .append(page + 1).append("\">Older items</a></div>\n");
+    buff.append("</body></html>\n");
+    return buff.toString();
+  }
+
+  private String originalUrl( final int idx )
+  {
+    return "https://example.com/articles/" + idx;
+  }
+
+  private Map<String, String> params( final String str ) throws IOException
+  {
+    final Map<String, String> map = Colls.newHashMap();
+    if ( Str.isEmpty(str) )
+      return map;
+    for ( final String pair : str.split("&") )
+    {
+      final int pos = pair.indexOf('=');
+      if ( pos > 0 )
+        map.put(URLDecoder.decode(pair.substring(0, pos), "UTF-8"),
+          URLDecoder.decode(pair.substring(pos + 1), "UTF-8"));
+    }
+    return map;
+  }
+
+  private String pocketList() throws IOException
+  {
+    final Map<String, Object> list = Colls.newLinkedHashMap();
+    for ( int xi = 0; xi < numArticles; ++xi )
+    {
+      final String id = String.valueOf(POCKET_ID + xi);
+      final Map<String, Object> article = Colls.newHashMap();
+      article.put("item_id", id);
+      article.put("resolved_id", id);
+      article.put("given_url", originalUrl(xi));
+      article.put("resolved_url", originalUrl(xi));
+      article.put("given_title", "Benchmark Article " + xi);
+      article.put("resolved_title", "Benchmark Article " + xi);
+      article.put("excerpt", "The preview of article " + xi + '.');
+      article.put("favorite", "0");
+      article.put("has_image", "1");
+      article.put("has_video", "0");
+      article.put("is_article", "1");
+      article.put("is_index", "0");
+      article.put("word_count", "1000");
+      list.put(id, article);
+    }
+    final Map<String, Object> ret = Colls.newLinkedHashMap();
+    ret.put("status", Integer.valueOf(1));
+    ret.put("complete", Integer.valueOf(1));
+    ret.put("since", Long.valueOf(System.currentTimeMillis() / 1000L));
+    ret.put("list", list);
+    return json.writeValueAsString(ret);
+  }
+
+  private Map<String, String> query( final HttpExchange exchange )
+    throws IOException
+  {
+    return params(exchange.getRequestURI().getRawQuery());
+  }
+
+  private void send( final HttpExchange exchange, final String content_type,
+      final String body ) throws IOException
+  {
+    final byte[] content = body.getBytes(Charsets.UTF8);
+    exchange.getResponseHeaders().set("Content-Type",
+      content_type + "; charset=utf-8");
+    exchange.sendResponseHeaders(200, content.length);
+    final OutputStream out = exchange.getResponseBody();
+    out.write(content);
+    out.close();
+  }
+}
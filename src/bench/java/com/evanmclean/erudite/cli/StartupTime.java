@@ -0,0 +1,272 @@
+package com.evanmclean.erudite.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.evanmclean.erudite.instapaper.Instapaper;
+import com.evanmclean.erudite.sessions.SessionIO;
+import com.evanmclean.evlib.charset.Charsets;
+import com.evanmclean.evlib.io.Folders;
+import com.evanmclean.evlib.util.Colls;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+/**
+ * <p>
+ * Measures how long <code>erudite.jar</code> takes to start up and finish for
+ * the quick actions: <code>titletest</code>, and <code>list</code> and
+ * <code>process</code> when there are no articles (against a {@link StandIn}
+ * for Instapaper.) Each action is run several times in a new JVM, with and
+ * without the class data sharing (AppCDS) archive, and the minimum and median
+ * wall clock times are reported.
+ * </p>
+ *
+ * <p>
+ * With <code>dump=true</code> it first creates the archive: each action is run
+ * once to record the classes it loads, and the combined list is dumped to the
+ * archive with <code>-Xshare:dump</code>. This needs Java 10 or later.
+ * </p>
+ *
+ * <p>
+ * Run with <code>ant cds</code> (to create the archive) or
+ * <code>ant startup</code> (to create it and measure.) Options are given as
+ * <code>name=value</code> arguments with <code>-Dstartup.args=...</code>:
+ * </p>
+ *
+ * <dl>
+ * <dt><code>jar</code></dt>
+ * <dd>The application jar (default <code>target/erudite.jar</code>.)</dd>
+ * <dt><code>archive</code></dt>
+ * <dd>The CDS archive (default <code>target/erudite.jsa</code>.)</dd>
+ * <dt><code>dump</code></dt>
+ * <dd>If <code>true</code>, create the archive first.</dd>
+ * <dt><code>runs</code></dt>
+ * <dd>The number of times to run each action (default 10, or 0 to only create
+ * the archive.)</dd>
+ * </dl>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+public final class StartupTime
+{
+  private static final ImmutableList<String> ACTIONS = ImmutableList.of(
+    "titletest", "list", "process");
+
+  public static void main( final String[] args ) throws Exception
+  {
+    final Map<String, String> opts = Colls.newHashMap();
+    for ( final String arg : args )
+    {
+      final int pos = arg.indexOf('=');
+      if ( pos <= 0 )
+        throw new IllegalArgumentException("Expected name=value: " + arg);
+      opts.put(arg.substring(0, pos), arg.substring(pos + 1));
+    }
+
+    final File jar = new File(get(opts, "jar", "target/erudite.jar"))
+        .getAbsoluteFile();
+    final File archive = new File(get(opts, "archive", "target/erudite.jsa"))
+        .getAbsoluteFile();
+    final boolean dump = Boolean.parseBoolean(get(opts, "dump", "false"));
+    final int runs = Integer.parseInt(get(opts, "runs", "10"));
+
+    final StandIn standin = new StandIn(0, 1, 0.0, 1L);
+    standin.start();
+    System.setProperty("erudite.instapaper.url", standin.getUrl()
+        + "/instapaper");
+
+    final File folder = Files.createTempDir();
+    int ret = 0;
+    try
+    {
+      final File session_file = new File(folder, "erudite.session");
+      final File config_file = new File(folder, "erudite.properties");
+      SessionIO.write(session_file,
+        Instapaper.login("bench@example.com", "secret"));
+      Files.asCharSink(config_file, Charsets.UTF8).write(
+        "processors = save\nsave.type = save\nsaveto = "
+            + new File(folder, "saved").getPath() + '\n');
+
+      final Runner runner = new Runner(jar, standin.getUrl(), session_file,
+          config_file);
+
+      if ( dump )
+      {
+        System.out.println("Creating " + archive.getPath());
+        final Set<String> classes = Colls.newLinkedHashSet();
+        for ( final String action : ACTIONS )
+        {
+          final File list = new File(folder, action + ".classlist");
+          runner.run(action, "-XX:DumpLoadedClassList=" + list.getPath());
+          classes.addAll(Files.asCharSource(list, Charsets.UTF8).readLines());
+        }
+        final File list = new File(folder, "classes.classlist");
+        Files.asCharSink(list, Charsets.UTF8).writeLines(classes);
+        final int exit = Runner.exec(ImmutableList.of(Runner.java(),
+          "-Xshare:dump", "-XX:SharedClassListFile=" + list.getPath(),
+          "-XX:SharedArchiveFile=" + archive.getPath(), "-cp", jar.getPath()),
+          false);
+        if ( exit != 0 )
+          throw new IOException("Creating the archive failed: " + exit);
+        System.out.println("Archived " + classes.size() + " classes.");
+      }
+
+      if ( runs > 0 )
+      {
+        final boolean use_archive = archive.exists();
+        System.out.println(String.format("%-10s %12s %12s %12s %12s",
+          "Action", "Min ms", "Median ms", "CDS min ms", "CDS median"));
+        for ( final String action : ACTIONS )
+        {
+          final long[] plain = runner.time(action, runs, null);
+          final long[] cds = use_archive ? runner.time(action, runs,
+            "-XX:SharedArchiveFile=" + archive.getPath()) : new long[0];
+          System.out.println(String.format("%-10s %12.1f %12.1f %12s %12s",
+            action, plain[0] / 1e6, median(plain) / 1e6, format(cds, true),
+            format(cds, false)));
+        }
+        if ( !use_archive )
+          System.out.println("No archive at " + archive.getPath()
+              + " (run ant cds first.)");
+      }
+    }
+    catch ( Exception ex )
+    {
+      ex.printStackTrace();
+      ret = 1;
+    }
+    finally
+    {
+      standin.stop();
+      Folders.delQuietly(folder);
+    }
+    System.exit(ret);
+  }
+
+  private static String format( final long[] sorted, final boolean min )
+  {
+    if ( sorted.length <= 0 )
+      return "-";
+    return String.format("%.1f", (min ? sorted[0] : median(sorted)) / 1e6);
+  }
+
+  private static String get( final Map<String, String> opts,
+      final String name, final String def )
+  {
+    final String val = opts.get(name);
+    return (val != null) ? val : def;
+  }
+
+  private static long median( final long[] sorted )
+  {
+    return (sorted.length <= 0) ? 0L : sorted[sorted.length / 2];
+  }
+
+  /**
+   * Runs the application in a new JVM.
+   */
+  private static class Runner
+  {
+    static int exec( final List<String> cmd, final boolean show )
+      throws IOException,
+        InterruptedException
+    {
+      final Process proc = new ProcessBuilder(cmd).redirectErrorStream(true)
+          .start();
+      final InputStream in = proc.getInputStream();
+      final byte[] output;
+      try
+      {
+        output = ByteStreams.toByteArray(in);
+      }
+      finally
+      {
+        in.close();
+      }
+      final int exit = proc.waitFor();
+      if ( show || (exit != 0) )
+        System.out.write(output);
+      return exit;
+    }
+
+    static String java()
+    {
+      return new File(new File(System.getProperty("java.home"), "bin"),
+          "java").getPath();
+    }
+
+    private final File jar;
+    private final String url;
+    private final File sessionFile;
+    private final File configFile;
+
+    Runner( final File jar, final String url, final File session_file,
+        final File config_file )
+    {
+      this.jar = jar;
+      this.url = url;
+      this.sessionFile = session_file;
+      this.configFile = config_file;
+    }
+
+    void run( final String action, final String jvm_option )
+      throws IOException,
+        InterruptedException
+    {
+      final List<String> cmd = Colls.newArrayList();
+      cmd.add(java());
+      if ( jvm_option != null )
+        cmd.add(jvm_option);
+      cmd.add("-Derudite.instapaper.url=" + url + "/instapaper");
+      cmd.add("-jar");
+      cmd.add(jar.getPath());
+      cmd.add(action);
+      if ( "titletest".equals(action) )
+      {
+        cmd.add("-c");
+        cmd.add(configFile.getPath());
+        cmd.add("Coding Horror: New Programming Jargon");
+      }
+      else
+      {
+        cmd.add("-s");
+        cmd.add(sessionFile.getPath());
+        cmd.add("-c");
+        cmd.add(configFile.getPath());
+      }
+      final int exit = exec(cmd, false);
+      if ( exit != 0 )
+        throw new IOException(action + " exited with " + exit);
+    }
+
+    long[] time( final String action, final int runs, final String jvm_option )
+      throws IOException,
+        InterruptedException
+    {
+      // One run to warm up the file system cache.
+      run(action, jvm_option);
+      final long[] times = new long[runs];
+      for ( int xi = 0; xi < runs; ++xi )
+      {
+        final long start = System.nanoTime();
+        run(action, jvm_option);
+        times[xi] = System.nanoTime() - start;
+      }
+      Arrays.sort(times);
+      return times;
+    }
+  }
+
+  private StartupTime()
+  {
+    // empty
+  }
+}
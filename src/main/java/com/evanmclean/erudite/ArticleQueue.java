@@ -0,0 +1,407 @@
+package com.evanmclean.erudite;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.evanmclean.erudite.misc.Urls;
+import com.evanmclean.evlib.util.Colls;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * The queue of articles waiting to be processed, filled by the source (see
+ * {@link StreamingSource}) while the {@link ProcessorThread}s take articles off
+ * it, so processing can start on the first articles while the source is still
+ * finding the rest. Thread safe.
+ * </p>
+ *
+ * <p>
+ * Once the source has finished, the queue is closed, and {@link #take()}
+ * returns <code>null</code> when there is nothing left.
+ * </p>
+ *
+ * <p>
+ * The queue also spots duplicate articles: those with the same URL (see
+ * {@link Urls#canonical(String)}) as one added before, and optionally those
+ * with the same content as one being (or already) processed. Duplicates are
+ * still put on the queue, as the source's action for them should follow what
+ * happened to the original: the on complete action once the original has
+ * been delivered, or the on error action if it failed. See
+ * {@link #duplicateUrl(Article)},
+ * {@link #duplicateContent(Article, String)} and
+ * {@link #finished(Article, boolean)}.
+ * </p>
+ *
+ * <p>
+ * When watching, the queue for each run can be given the URLs of the articles
+ * delivered by earlier runs, so an article left in place by the source's on
+ * complete action is treated as a duplicate that was delivered, rather than
+ * being processed again every time it is found.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+public class ArticleQueue
+{
+  /**
+   * Whether an article taken off the queue is a duplicate, and if so, what
+   * should be done with it.
+   */
+  public static enum Duplicate
+  {
+    /**
+     * Not a duplicate, so process it (and then call
+     * {@link ArticleQueue#finished(Article, boolean)}.)
+     */
+    NONE,
+    /**
+     * A duplicate of an article still being processed. It is held until the
+     * original has finished, and then returned by
+     * {@link ArticleQueue#finished(Article, boolean)}.
+     */
+    PENDING,
+    /**
+     * A duplicate of an article that was delivered, so only do the on
+     * complete action.
+     */
+    DELIVERED,
+    /**
+     * A duplicate of an article that failed, so do the on error action.
+     */
+    FAILED
+  }
+
+  /**
+   * The first article with a URL or content, whether it was delivered, and
+   * the duplicates waiting to find out.
+   */
+  private static class Original
+  {
+    final Article article;
+    final List<Article> waiting = Colls.newArrayList();
+    Boolean delivered;
+
+    Original( final Article article )
+    {
+      this.article = article;
+    }
+
+    Duplicate check( final Article duplicate )
+    {
+      if ( delivered == null )
+      {
+        waiting.add(duplicate);
+        return Duplicate.PENDING;
+      }
+      return delivered.booleanValue() ? Duplicate.DELIVERED
+          : Duplicate.FAILED;
+    }
+  }
+
+  private final LinkedList<Article> queue = new LinkedList<Article>();
+  private final List<String> errors = Colls.newArrayList();
+  private final boolean dedupUrls;
+  private final Set<String> delivered;
+  private final Map<String, Original> urls = Colls.newHashMap();
+  private final Map<String, Original> contents;
+  private final Map<Article, Original> duplicates = Maps.newIdentityHashMap();
+  private final Map<Article, List<Original>> originals = Maps
+      .newIdentityHashMap();
+  private int added;
+  private boolean closed;
+
+  /**
+   * Create a queue that spots duplicate URLs, but not content.
+   */
+  public ArticleQueue()
+  {
+    this(true, false, null);
+  }
+
+  /**
+   * Create a queue.
+   *
+   * @param dedup_urls
+   *        Spot articles with the same URL.
+   * @param dedup_content
+   *        Spot articles with the same content.
+   * @param delivered
+   *        The URLs (see {@link Urls#canonical(String)}) of the articles
+   *        delivered by earlier runs, which are treated as duplicates that
+   *        were delivered. The URLs of the articles delivered by this run are
+   *        added to it. May be <code>null</code> if not remembering articles
+   *        between runs.
+   */
+  public ArticleQueue( final boolean dedup_urls, final boolean dedup_content,
+      final Set<String> delivered )
+  {
+    this.dedupUrls = dedup_urls;
+    this.delivered = delivered;
+    this.contents = dedup_content ? Colls.<String, Original> newHashMap()
+        : null;
+  }
+
+  /**
+   * Add an article to the end of the queue. Ignored if the queue has been
+   * closed.
+   *
+   * @param article
+   *        The article.
+   */
+  public synchronized void add( final Article article )
+  {
+    if ( closed )
+      return;
+    check(article);
+    queue.add(article);
+    ++added;
+    notifyAll();
+  }
+
+  /**
+   * Add articles to the end of the queue. Ignored if the queue has been
+   * closed.
+   *
+   * @param articles
+   *        The articles.
+   */
+  public synchronized void addAll( final Collection<? extends Article> articles )
+  {
+    if ( closed || articles.isEmpty() )
+      return;
+    for ( final Article article : articles )
+      check(article);
+    queue.addAll(articles);
+    added += articles.size();
+    notifyAll();
+  }
+
+  /**
+   * Add a non-fatal error generated by the source while retrieving the
+   * articles.
+   *
+   * @param errmsg
+   *        The error message.
+   */
+  public synchronized void addError( final String errmsg )
+  {
+    errors.add(errmsg);
+  }
+
+  /**
+   * Wait until there is at least one article, or the queue is closed.
+   *
+   * @return True if any articles were ever added to the queue, false if the
+   *         queue was closed without any.
+   * @throws InterruptedException
+   */
+  public synchronized boolean awaitArticles() throws InterruptedException
+  {
+    while ( (added <= 0) && (!closed) )
+      wait();
+    return added > 0;
+  }
+
+  /**
+   * Indicate that the source has finished adding articles.
+   */
+  public synchronized void close()
+  {
+    closed = true;
+    notifyAll();
+  }
+
+  /**
+   * The number of articles that have been added to the queue (including those
+   * that have since been taken off it.)
+   *
+   * @return The number of articles added to the queue.
+   */
+  public synchronized int getAdded()
+  {
+    return added;
+  }
+
+  /**
+   * Any non-fatal errors generated by the source while retrieving the articles.
+   *
+   * @return List (usually empty) of non-fatal error messages.
+   */
+  public synchronized ImmutableList<String> getErrors()
+  {
+    return ImmutableList.copyOf(errors);
+  }
+
+  /**
+   * Is the content of an article the same as one being (or already)
+   * processed? If not, the article becomes the original for its content,
+   * until it is finished. The content of an article that failed is
+   * forgotten, so the next article with the same content is processed.
+   *
+   * @param article
+   *        The article (taken from the queue.)
+   * @param hash
+   *        The {@link Ledger#hash(Article)} of the article, or
+   *        <code>null</code> if it couldn't be worked out.
+   * @return Whether the article is a duplicate and what to do with it.
+   *         Always {@link Duplicate#NONE} if the queue isn't spotting
+   *         duplicate content.
+   */
+  public synchronized Duplicate duplicateContent( final Article article,
+      final String hash )
+  {
+    if ( (contents == null) || (hash == null) )
+      return Duplicate.NONE;
+    final Original original = contents.get(hash);
+    if ( original == null )
+    {
+      final Original claim = new Original(article);
+      contents.put(hash, claim);
+      claim(article, claim);
+      return Duplicate.NONE;
+    }
+    if ( original.article == article )
+      return Duplicate.NONE;
+    return original.check(article);
+  }
+
+  /**
+   * Is the article a duplicate of one added to the queue before it (by
+   * URL)?
+   *
+   * @param article
+   *        The article (taken from the queue.)
+   * @return Whether the article is a duplicate and what to do with it.
+   */
+  public synchronized Duplicate duplicateUrl( final Article article )
+  {
+    final Original original = duplicates.remove(article);
+    return (original == null) ? Duplicate.NONE : original.check(article);
+  }
+
+  /**
+   * Record that an article that was not a duplicate has been processed.
+   *
+   * @param article
+   *        The article.
+   * @param delivered
+   *        True if it was processed without error.
+   * @return The duplicates that were waiting on the article (see
+   *         {@link Duplicate#PENDING}), which should now be completed if it
+   *         was delivered, or have the on error action done if not.
+   */
+  public synchronized List<Article> finished( final Article article,
+      final boolean delivered )
+  {
+    final List<Article> ret = Colls.newArrayList();
+    // The duplicates may in turn be the originals of other duplicates.
+    final LinkedList<Article> todo = new LinkedList<Article>();
+    todo.add(article);
+    while ( !todo.isEmpty() )
+    {
+      final Article done = todo.poll();
+      if ( delivered && (this.delivered != null) )
+      {
+        final String url = Urls.canonical(done.getOriginalUrl());
+        if ( url != null )
+          this.delivered.add(url);
+      }
+      final List<Original> claims = originals.remove(done);
+      if ( claims == null )
+        continue;
+      for ( final Original original : claims )
+      {
+        original.delivered = Boolean.valueOf(delivered);
+        ret.addAll(original.waiting);
+        todo.addAll(original.waiting);
+        original.waiting.clear();
+        if ( (!delivered) && (contents != null) )
+          contents.values().remove(original);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Are we spotting articles with the same content?
+   *
+   * @return True if {@link #duplicateContent(Article, String)} should be
+   *         checked.
+   */
+  public boolean isDedupContent()
+  {
+    return contents != null;
+  }
+
+  /**
+   * Has the queue been closed? The source can stop looking for articles if it
+   * has (e.g., because processing failed.)
+   *
+   * @return True if the queue has been closed.
+   */
+  public synchronized boolean isClosed()
+  {
+    return closed;
+  }
+
+  /**
+   * Take the next article off the queue, waiting for the source to add one if
+   * necessary.
+   *
+   * @return The next article, or <code>null</code> if the queue is empty and
+   *         closed.
+   * @throws InterruptedException
+   */
+  public synchronized Article take() throws InterruptedException
+  {
+    while ( queue.isEmpty() && (!closed) )
+      wait();
+    return queue.poll();
+  }
+
+  private void check( final Article article )
+  {
+    if ( (!dedupUrls) && (delivered == null) )
+      return;
+    final String url = Urls.canonical(article.getOriginalUrl());
+    if ( url == null )
+      return;
+    if ( (delivered != null) && delivered.contains(url) )
+    {
+      final Original earlier = new Original(null);
+      earlier.delivered = Boolean.TRUE;
+      duplicates.put(article, earlier);
+      return;
+    }
+    if ( !dedupUrls )
+      return;
+    final Original original = urls.get(url);
+    if ( original != null )
+    {
+      duplicates.put(article, original);
+    }
+    else
+    {
+      final Original claim = new Original(article);
+      urls.put(url, claim);
+      claim(article, claim);
+    }
+  }
+
+  private void claim( final Article article, final Original original )
+  {
+    List<Original> claims = originals.get(article);
+    if ( claims == null )
+    {
+      claims = Colls.newArrayList(2);
+      originals.put(article, claims);
+    }
+    claims.add(original);
+  }
+}
@@ -0,0 +1,321 @@
+package com.evanmclean.erudite;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.evanmclean.erudite.logback.Logback;
+import com.evanmclean.erudite.misc.Metrics;
+import com.evanmclean.evlib.util.Colls;
+
+/**
+ * <p>
+ * Does the source's on complete and on error actions (see
+ * {@link Source#onComplete(Article)} and {@link Source#onError(Article)}) on
+ * a small pool of threads of its own, so a slow response from Instapaper or
+ * Pocket doesn't keep a {@link ProcessorThread} from starting on its next
+ * article. Thread safe.
+ * </p>
+ *
+ * <p>
+ * The actions for an article are done in order by a single task: the on
+ * complete action, then the on error action if that fails. Actions are not
+ * retried here, as the requests they make are already retried by
+ * {@link com.evanmclean.erudite.misc.Conn} when that might help. Once the on
+ * complete action has been done, the article is recorded as completed in the
+ * {@link Ledger} (if there is one), so a failed action is tried again on the
+ * next run.
+ * </p>
+ *
+ * <p>
+ * While a {@link StreamingSource} is still listing the articles, the actions
+ * are held back until it has finished. Archiving, moving or deleting an
+ * article shifts the ones after it onto the pages already read, so they would
+ * otherwise be missed.
+ * </p>
+ *
+ * <p>
+ * Call {@link #finish()} once all the articles have been processed, to wait
+ * for the outstanding actions and find out how many failed.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+public class CompletionDispatcher
+{
+  private static final Logger log = LoggerFactory
+      .getLogger(CompletionDispatcher.class);
+  private static final AtomicInteger threadNum = new AtomicInteger();
+  private static final Metrics.Counter SOURCE_ACTIONS = Metrics.counter(
+    "erudite_source_actions_total",
+    "Source on complete and on error actions, by whether they succeeded.",
+    "action", "result");
+  private static final Metrics.Timer SOURCE_ACTION_TIME = Metrics.timer(
+    "erudite_source_action",
+    "Time taken by source on complete and on error actions.", "action");
+
+  private final Source source;
+  private final Ledger ledger;
+  private final ArticleQueue listing;
+  private final List<Runnable> held = Colls.newArrayList();
+  private final ThreadPoolExecutor executor;
+  private final AtomicInteger failures = new AtomicInteger();
+  private final AtomicInteger actions = new AtomicInteger();
+  private final AtomicLong actionNanos = new AtomicLong();
+
+  /**
+   * Create a dispatcher.
+   *
+   * @param source
+   *        The source of all the articles.
+   * @param ledger
+   *        Where to record the articles completed, or <code>null</code> if
+   *        not keeping a ledger.
+   * @param listing
+   *        The queue the source is adding the articles to. Actions are held
+   *        back until it is closed. May be <code>null</code> if the source has
+   *        already finished.
+   * @param threads
+   *        The number of threads to do the actions on. If zero, the actions
+   *        are done straight away on the calling thread (or the thread
+   *        dispatching the first action after the listing has finished.)
+   */
+  public CompletionDispatcher( final Source source, final Ledger ledger,
+      final ArticleQueue listing, final int threads )
+  {
+    this.source = source;
+    this.ledger = ledger;
+    this.listing = listing;
+    if ( threads <= 0 )
+    {
+      executor = null;
+    }
+    else
+    {
+      executor = new ThreadPoolExecutor(threads, threads, 30L,
+          TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactory() {
+            @Override
+            public Thread newThread( final Runnable run )
+            {
+              final Thread thrd = new Thread(run, "eruditeactions"
+                  + threadNum.incrementAndGet());
+              thrd.setDaemon(true);
+              return thrd;
+            }
+          });
+      // Don't leave idle threads lying around between runs when watching.
+      executor.allowCoreThreadTimeOut(true);
+    }
+  }
+
+  /**
+   * Do the on complete action for an article that was processed without
+   * error, or the on error action if that fails.
+   *
+   * @param article
+   *        The article.
+   * @param hash
+   *        The {@link Ledger#hash(Article)} of the article, or
+   *        <code>null</code> if it is not to be recorded in the ledger.
+   * @param state
+   *        The state of the article in the ledger before it was processed,
+   *        or <code>null</code> if it wasn't there.
+   */
+  public void complete( final Article article, final String hash,
+      final Ledger.State state )
+  {
+    dispatch(new Runnable() {
+      @SuppressWarnings( "synthetic-access" )
+      @Override
+      public void run()
+      {
+        if ( action(article, true) )
+        {
+          if ( (ledger != null) && (hash != null)
+              && (state != Ledger.State.COMPLETED) )
+            try
+            {
+              ledger.completed(article, hash);
+            }
+            catch ( IOException ex )
+            {
+              log.warn("Could not update the ledger for " + article.getTitle(),
+                ex);
+            }
+        }
+        else
+        {
+          failures.incrementAndGet();
+          action(article, false);
+        }
+      }
+    });
+  }
+
+  /**
+   * Do the on error action for an article that failed processing.
+   *
+   * @param article
+   *        The article.
+   */
+  public void error( final Article article )
+  {
+    dispatch(new Runnable() {
+      @SuppressWarnings( "synthetic-access" )
+      @Override
+      public void run()
+      {
+        if ( !action(article, false) )
+          failures.incrementAndGet();
+      }
+    });
+  }
+
+  /**
+   * Wait for all the outstanding actions to be done. No more actions can be
+   * dispatched after this.
+   *
+   * @return The number of articles for which an action failed.
+   * @throws InterruptedException
+   */
+  public int finish() throws InterruptedException
+  {
+    release();
+    if ( executor != null )
+    {
+      executor.shutdown();
+      try
+      {
+        while ( !executor.awaitTermination(1, TimeUnit.MINUTES) )
+          log.debug("Waiting on {} source actions.",
+            String.valueOf(executor.getQueue().size()));
+      }
+      catch ( InterruptedException ex )
+      {
+        executor.shutdownNow();
+        throw ex;
+      }
+    }
+    return failures.get();
+  }
+
+  /**
+   * The number of actions done so far (successfully or not.)
+   *
+   * @return The number of actions.
+   */
+  public int getActions()
+  {
+    return actions.get();
+  }
+
+  /**
+   * The total time taken by the actions done so far.
+   *
+   * @return The time in nanoseconds.
+   */
+  public long getActionNanos()
+  {
+    return actionNanos.get();
+  }
+
+  /**
+   * Do an action.
+   *
+   * @return True if the action was done.
+   */
+  private boolean action( final Article article, final boolean complete )
+  {
+    final String name = complete ? "complete" : "error";
+    final long start = System.nanoTime();
+    String result = "error";
+    try
+    {
+      if ( complete )
+        source.onComplete(article);
+      else
+        source.onError(article);
+      result = "ok";
+      return true;
+    }
+    catch ( Exception ex )
+    {
+      log.error("Error while processing " + article.getTitle(), ex);
+      return false;
+    }
+    finally
+    {
+      SOURCE_ACTION_TIME.since(start, name);
+      SOURCE_ACTIONS.inc(name, result);
+      actions.incrementAndGet();
+      actionNanos.addAndGet(System.nanoTime() - start);
+    }
+  }
+
+  private void dispatch( final Runnable task )
+  {
+    synchronized ( held )
+    {
+      if ( (listing != null) && (!listing.isClosed()) )
+      {
+        held.add(task);
+        return;
+      }
+    }
+    release();
+    execute(task);
+  }
+
+  private void execute( final Runnable task )
+  {
+    if ( executor == null )
+    {
+      task.run();
+      return;
+    }
+    executor.execute(new Runnable() {
+      @Override
+      public void run()
+      {
+        try
+        {
+          task.run();
+        }
+        finally
+        {
+          Logback.flushLog();
+        }
+      }
+    });
+  }
+
+  /**
+   * Do the actions held back while the source was listing the articles.
+   */
+  private void release()
+  {
+    final List<Runnable> tasks;
+    synchronized ( held )
+    {
+      if ( held.isEmpty() )
+        return;
+      tasks = Colls.newArrayList(held);
+      held.clear();
+    }
+    log.trace("Doing {} source actions held back while listing articles.",
+      String.valueOf(tasks.size()));
+    for ( final Runnable task : tasks )
+      execute(task);
+  }
+}
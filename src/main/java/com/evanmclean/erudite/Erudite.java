@@ -131,26 +131,51 @@ public class Erudite
     throws IOException
   {
     log.debug("Processing {}", article.getTitle());
-    final Document doc = template.getDocument();
-    doc.title(article.getTitle());
-    setTextElementByClass(doc, "erudite_title", article.getTitle());
-    setAByClass(doc, "erudite_original_url", article.getOriginalUrl());
-    setAByClass(doc, "erudite_original_link", article.getOriginalUrl(), null);
-    insertPlug(doc, source);
-
-    insertSourceMeta(doc, article, source);
-    insertHackerNewsMeta(doc, hacker_news_urls);
-
-    final Element content = article.text();
-    if ( do_footnotes )
-      insertFootnotes(doc, content, article.getOriginalUrl());
-    else
-      removeFootnotes(doc);
+    Stage.RENDER.start();
+    try
+    {
+      final Document doc = template.getDocument();
+      doc.title(article.getTitle());
+      setTextElementByClass(doc, "erudite_title", article.getTitle());
+      setAByClass(doc, "erudite_original_url", article.getOriginalUrl());
+      setAByClass(doc, "erudite_original_link", article.getOriginalUrl(), null);
+      insertPlug(doc, source);
+
+      insertSourceMeta(doc, article, source);
+      insertHackerNewsMeta(doc, hacker_news_urls);
+
+      final Element content;
+      Stage.FETCH.start();
+      try
+      {
+        content = article.text();
+      }
+      finally
+      {
+        Stage.FETCH.end();
+      }
+      if ( do_footnotes )
+        insertFootnotes(doc, content, article.getOriginalUrl());
+      else
+        removeFootnotes(doc);
 
-    handleImages(content, image_handler);
+      Stage.IMAGES.start();
+      try
+      {
+        handleImages(content, image_handler);
+      }
+      finally
+      {
+        Stage.IMAGES.end();
+      }
 
-    insertContent(doc, content);
-    return doc;
+      insertContent(doc, content);
+      return doc;
+    }
+    finally
+    {
+      Stage.RENDER.end();
+    }
   }
 
   private void handleImages( final Element content,
@@ -10,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.evanmclean.erudite.misc.Conn;
+import com.evanmclean.erudite.misc.Metrics;
 import com.evanmclean.evlib.escape.Esc;
 import com.evanmclean.evlib.lang.Str;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -183,8 +184,23 @@ public final class HNSearch
   }
 
   public static final ImmutableList<String> EMPTY = ImmutableList.of();
+
+  /**
+   * The search API to use. Can be overridden with the
+   * <code>erudite.hnsearch.url</code> system property (e.g., to point at a
+   * stand-in server for testing.)
+   */
+  private static final String SEARCH_URL = System.getProperty(
+    "erudite.hnsearch.url", "http://hn.algolia.com/api/v1/search_by_date");
+
   private static final LoadingCache<Source, ImmutableList<String>> cache = createCache();
 
+  private static final Metrics.Counter LOOKUPS = Metrics.counter(
+    "erudite_hnsearch_lookups_total",
+    "Hacker News lookups, by whether a discussion thread was found.", "result");
+  private static final Metrics.Timer LOOKUP_TIME = Metrics.timer(
+    "erudite_hnsearch_lookup", "Time taken by Hacker News lookups.");
+
   /**
    * Removes all lookups in the cache.
    */
@@ -203,10 +219,15 @@ public final class HNSearch
    */
   public static ImmutableList<String> lookup( final Article article )
   {
+    Stage.HNSEARCH.start();
+    final long start = System.nanoTime();
+    String result = "error";
     try
     {
-      return cache
+      final ImmutableList<String> ret = cache
           .get(new Source(article.getOriginalUrl(), article.getTitle()));
+      result = ret.isEmpty() ? "none" : "found";
+      return ret;
     }
     catch ( Exception ex )
     {
@@ -214,6 +235,12 @@ public final class HNSearch
           .trace("Error while HNSearch for " + article.getOriginalUrl(), ex);
       return ImmutableList.of();
     }
+    finally
+    {
+      LOOKUP_TIME.since(start);
+      LOOKUPS.inc(result);
+      Stage.HNSEARCH.end();
+    }
   }
 
   private static LoadingCache<Source, ImmutableList<String>> createCache()
@@ -256,11 +283,11 @@ public final class HNSearch
           {
             try
             {
-              final String hnsearch_url = "http://hn.algolia.com/api/v1/search_by_date?tags=story&query="
-                  + Esc.url.text(term);
+              final String hnsearch_url = SEARCH_URL
+                  + "?tags=story&query=" + Esc.url.text(term);
               final Connection conn = Conn.connect(hnsearch_url);
               conn.ignoreContentType(true);
-              final Response resp = conn.execute();
+              final Response resp = Conn.execute(conn);
               if ( resp.statusCode() != 200 )
               {
                 LoggerFactory.getLogger(HNSearch.class).trace(
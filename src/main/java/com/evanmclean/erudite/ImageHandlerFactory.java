@@ -7,8 +7,11 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.Collection;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -16,29 +19,29 @@ import javax.imageio.ImageIO;
 
 import org.jsoup.Connection;
 import org.jsoup.Connection.Response;
+import org.jsoup.HttpStatusException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.evanmclean.erudite.config.Config;
+import com.evanmclean.erudite.jfr.Events;
 import com.evanmclean.erudite.misc.Conn;
-import com.evanmclean.erudite.misc.FileName;
+import com.evanmclean.erudite.misc.HostBackoff;
+import com.evanmclean.erudite.misc.Metrics;
 import com.evanmclean.erudite.misc.UniqueFile;
 import com.evanmclean.evlib.io.Folders;
 import com.evanmclean.evlib.lang.Arr;
 import com.evanmclean.evlib.lang.Str;
-import com.evanmclean.evlib.stringtransform.AndTransform;
 import com.evanmclean.evlib.stringtransform.FilenameTransformer;
-import com.evanmclean.evlib.stringtransform.Transform;
-import com.evanmclean.evlib.stringtransform.TransformAsciify;
+import com.google.common.base.Supplier;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
 import com.google.common.cache.Weigher;
-
-import eu.medsea.mimeutil.MimeType;
-import eu.medsea.mimeutil.MimeUtil2;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
  * Produces {@link ImageHandler}s. The factory and the handlers it produces are
@@ -55,6 +58,58 @@ public final class ImageHandlerFactory
     {
       super(msg);
     }
+
+    public HadIOException( final String msg, final Throwable cause )
+    {
+      super(msg, cause);
+    }
+  }
+
+  /**
+   * Thrown instead of trying to retrieve an image from a host that is not
+   * responding.
+   */
+  private static class HostDownException extends IOException
+  {
+    public HostDownException( final String msg )
+    {
+      super(msg);
+    }
+  }
+
+  /**
+   * Where the content of cached images is kept.
+   */
+  private static enum Store
+  {
+    /**
+     * Byte arrays on the heap, which may be released by the garbage collector
+     * when memory is short.
+     */
+    HEAP,
+    /**
+     * Direct byte buffers, outside of the heap. Always limited by size (the
+     * weigher), not by the number of images. The memory of a buffer is only
+     * freed once the garbage collector gets to it, not when it is removed
+     * from the cache.
+     */
+    DIRECT,
+    /**
+     * Temporary files mapped into memory.
+     */
+    MAPPED;
+
+    static Store get( final String str )
+    {
+      if ( Str.isEmpty(str) )
+        return HEAP;
+      for ( final Store store : values() )
+        if ( store.name().equalsIgnoreCase(str) )
+          return store;
+      throw new IllegalStateException(
+          "Unknown value for configuration variable image.cache.store: "
+              + str);
+    }
   }
 
   /**
@@ -62,29 +117,53 @@ public final class ImageHandlerFactory
    * The contents of an image, plus the file name extension we should use.
    * </p>
    * <p>
-   * If content is null, then:
+   * If content is null then the image is unavailable (such as being too
+   * small) and should be removed from the article. Images that could not be
+   * retrieved are not cached as image content at all.
+   * </p>
+   * <p>
+   * The content is either a heap buffer, a direct buffer or a buffer mapped
+   * from a temporary file, depending on the {@link Store} being used.
    * </p>
-   * <ul>
-   * <li>if extension is also null then the image is unavailable and should be
-   * removed from the article.</li>
-   * <li>otherwise an exception occurred while retrieving the image, and
-   * extension contains the message to go in the IOException.</li>
-   * </ul>
    */
   private static class ImageContent
   {
-    private final byte[] content;
+    private final ByteBuffer content;
+    private final File file;
     private final String name;
     private final String extension;
 
     ImageContent( final byte[] content, final String name,
         final String extension )
+    {
+      this((content == null) ? null : ByteBuffer.wrap(content), null, name,
+          extension);
+    }
+
+    ImageContent( final ByteBuffer content, final File file,
+        final String name, final String extension )
     {
       this.content = content;
+      this.file = file;
       this.name = name;
       this.extension = extension;
     }
 
+    /**
+     * The content as a byte array. Only heap backed images are used this way
+     * (while the image is being loaded), so this normally does not copy.
+     *
+     * @return The image content.
+     */
+    byte[] bytes()
+    {
+      if ( content.hasArray() )
+        return content.array();
+      final byte[] bytes = new byte[content.capacity()];
+      content.duplicate().get(bytes);
+      return bytes;
+    }
+
     public String getExtension()
     {
       return extension;
@@ -105,6 +184,17 @@ public final class ImageHandlerFactory
       return content != null;
     }
 
+    /**
+     * Release any resources held outside of the heap. Called once the image
+     * has been removed from the cache. A direct buffer is left for the
+     * garbage collector, as another thread may still be saving from it.
+     */
+    void release()
+    {
+      if ( (file != null) && (!file.delete()) )
+        file.deleteOnExit(); // Still mapped on some platforms.
+    }
+
     /**
      * Save a byte array to a file.
      * 
@@ -116,10 +206,13 @@ public final class ImageHandlerFactory
     {
       if ( content == null )
         throw new IllegalStateException("There is no content for this image.");
-      final OutputStream out = new FileOutputStream(file);
+      final FileOutputStream out = new FileOutputStream(file);
       try
       {
-        out.write(content);
+        final FileChannel channel = out.getChannel();
+        final ByteBuffer buf = content.duplicate();
+        while ( buf.hasRemaining() )
+          channel.write(buf);
       }
       finally
       {
@@ -128,31 +221,43 @@ public final class ImageHandlerFactory
     }
 
     /**
-     * Throws an IOException if an exception occurred while retrieving the
-     * image.
-     * 
-     * @throws HadIOException
+     * The size of the image content.
+     *
+     * @return The size in bytes (zero if there is no content.)
      */
-    void throwIfInError() throws HadIOException
+    int size()
     {
-      if ( (content == null) && (extension != null) )
-        throw new HadIOException(extension);
+      return (content == null) ? 0 : content.capacity();
     }
 
     /**
-     * Used by cache management.
+     * Used by cache management. Includes the content whether it is on or off
+     * the heap.
      * 
      * @return Rough number of bytes this object uses.
      */
     int weight()
     {
       return Math.max(1, //
-        ((content == null) ? 0 : content.length) //
+        ((content == null) ? 0 : content.capacity()) //
             + (Str.length(name) * 2) //
             + (Str.length(extension) * 2));
     }
   }
 
+  private static final int DEFAULT_RETRY_SECONDS = 60;
+  private static final int DEFAULT_HOST_FAILURES = 3;
+  private static final int DEFAULT_HOST_BACKOFF_SECONDS = 30;
+  private static final long MAX_HOST_BACKOFF = TimeUnit.MINUTES.toMillis(10);
+
+  private static final Metrics.Counter REQUESTS = Metrics.counter(
+    "erudite_image_cache_requests_total",
+    "Images requested from the image cache, by whether they were a hit or miss.",
+    "result");
+  private static final Metrics.Counter EVICTIONS = Metrics.counter(
+    "erudite_image_cache_evictions_total",
+    "Images removed from the image cache, by cause.", "cause");
+
   /**
    * Create factory with unlimited cache (and default concurrency).
    * 
@@ -175,7 +280,9 @@ public final class ImageHandlerFactory
       final boolean convert_to_png, final int min_width, final int min_height )
   {
     return new ImageHandlerFactory(null_on_error, convert_to_png, min_width,
-        min_height, 0, -1L, -1L);
+        min_height, 0, -1L, -1L, null, Store.HEAP,
+        DEFAULT_RETRY_SECONDS, hostBackoff(DEFAULT_HOST_FAILURES,
+          DEFAULT_HOST_BACKOFF_SECONDS));
   }
 
   /**
@@ -204,7 +311,9 @@ public final class ImageHandlerFactory
       final int cache_concurrency )
   {
     return new ImageHandlerFactory(null_on_error, convert_to_png, min_width,
-        min_height, cache_concurrency, -1L, -1L);
+        min_height, cache_concurrency, -1L, -1L, null, Store.HEAP,
+        DEFAULT_RETRY_SECONDS, hostBackoff(DEFAULT_HOST_FAILURES,
+          DEFAULT_HOST_BACKOFF_SECONDS));
   }
 
   /**
@@ -244,7 +353,9 @@ public final class ImageHandlerFactory
       final long max_cache_mb )
   {
     return new ImageHandlerFactory(null_on_error, convert_to_png, min_width,
-        min_height, cache_concurrency, max_cache_members, max_cache_mb);
+        min_height, cache_concurrency, max_cache_members, max_cache_mb, null,
+        Store.HEAP, DEFAULT_RETRY_SECONDS, hostBackoff(DEFAULT_HOST_FAILURES,
+          DEFAULT_HOST_BACKOFF_SECONDS));
   }
 
   /**
@@ -276,7 +387,11 @@ public final class ImageHandlerFactory
   public static ImageHandlerFactory create( final int cache_concurrency,
       final Config config )
   {
-    final int maxmembers = config.getInt("image.cache.max.members", -1);
+    final Store store = Store.get(config.getString("image.cache.store"));
+    // Direct buffers are always limited by size, to bound the memory they
+    // hold outside of the heap.
+    final int maxmembers = (store == Store.DIRECT) ? -1 : config.getInt(
+      "image.cache.max.members", -1);
     int maxmb = config.getInt("image.cache.max.mb", -1);
     if ( maxmembers >= 0 )
       maxmb = 0;
@@ -291,6 +406,13 @@ public final class ImageHandlerFactory
         , Math.max(1, Math.min(20, cache_concurrency)) //
         , maxmembers //
         , maxmb //
+        , ImageScaler.create(config) //
+        , store //
+        , config.getInt("image.retry.seconds", DEFAULT_RETRY_SECONDS) //
+        , hostBackoff( //
+          config.getInt("image.host.failures", DEFAULT_HOST_FAILURES) //
+          , config.getInt("image.host.backoff.seconds",
+            DEFAULT_HOST_BACKOFF_SECONDS)) //
     );
   }
 
@@ -316,14 +438,29 @@ public final class ImageHandlerFactory
       final boolean convert_to_png, final int min_width, final int min_height )
   {
     return new ImageHandlerFactory(null_on_error, convert_to_png, min_width,
-        min_height, 0, 0, -1L);
+        min_height, 0, 0, -1L, null, Store.HEAP,
+        DEFAULT_RETRY_SECONDS, hostBackoff(DEFAULT_HOST_FAILURES,
+          DEFAULT_HOST_BACKOFF_SECONDS));
+  }
+
+  private static HostBackoff hostBackoff( final int failures,
+      final int backoff_seconds )
+  {
+    final long backoff = TimeUnit.SECONDS.toMillis(Math.max(1,
+      backoff_seconds));
+    return new HostBackoff(failures, backoff, Math.max(backoff,
+      MAX_HOST_BACKOFF));
   }
 
   private final boolean nullOnError;
   private final boolean convertToPng;
   private final int minWidth;
   private final int minHeight;
+  private final ImageScaler scaler;
+  private final Store store;
   private final LoadingCache<String, ImageContent> cache;
+  private final Cache<String, String> failures;
+  private final HostBackoff hosts;
   private final FilenameTransformer filenameTransformer = new FilenameTransformer(
       FilenameTransformer.NonAsciiHandling.ASCIIFY, 200);
   private final Logger log = LoggerFactory.getLogger(ImageHandlerFactory.class);
@@ -333,15 +470,27 @@ public final class ImageHandlerFactory
   private ImageHandlerFactory( final boolean null_on_error,
       final boolean convert_to_png, final int min_width, final int min_height,
       final int cache_concurrency, final long max_cache_members,
-      final long max_cache_mb )
+      final long max_cache_mb, final ImageScaler scaler, final Store store,
+      final int retry_seconds, final HostBackoff hosts )
   {
     this.nullOnError = null_on_error;
     this.convertToPng = convert_to_png;
     this.minWidth = Math.max(0, min_width);
     this.minHeight = Math.max(0, min_height);
-
-    final CacheBuilder<String, ImageContent> bldr = CacheBuilder.newBuilder()
-        .softValues()
+    this.scaler = scaler;
+    this.store = store;
+    this.hosts = hosts;
+    if ( scaler != null )
+      log.trace("Images will be scaled: {}", scaler);
+    if ( store != Store.HEAP )
+      log.trace("Cached images will be stored: {}", store);
+
+    final CacheBuilder<Object, Object> base = CacheBuilder.newBuilder();
+    // Soft values only make sense on the heap. Off heap content is released
+    // explicitly when removed from the cache, and is sized by the weigher.
+    if ( store == Store.HEAP )
+      base.softValues();
+    final CacheBuilder<String, ImageContent> bldr = base
         .removalListener(new RemovalListener<String, ImageContent>() {
           @SuppressWarnings( "synthetic-access" )
           @Override
@@ -372,6 +521,10 @@ public final class ImageHandlerFactory
             }
             log.trace("Removed image from cache because {}: {}", cause,
               event.getKey());
+            EVICTIONS.inc(event.getCause().toString().toLowerCase());
+            final ImageContent image = event.getValue();
+            if ( image != null )
+              image.release();
           }
         });
 
@@ -391,35 +544,90 @@ public final class ImageHandlerFactory
       });
     }
 
+    // Failed images are remembered separately for a short time, so we don't
+    // keep trying them, but will try again later in a long run.
+    failures = CacheBuilder.newBuilder()
+        .expireAfterWrite(Math.max(0, retry_seconds), TimeUnit.SECONDS)
+        .build();
+
     cache = bldr.build(new CacheLoader<String, ImageContent>() {
-      @SuppressWarnings( "synthetic-access" )
       @Override
-      public ImageContent load( final String url )
+      public ImageContent load( final String url ) throws Exception
       {
+        final Object event = Events.startImageLoad();
+        ImageContent image = null;
         try
         {
+          image = retrieve(url);
+          return image;
+        }
+        finally
+        {
+          Events.endImageLoad(event, url, (image == null) ? 0L : image.size(),
+            image != null);
+        }
+      }
+
+      @SuppressWarnings( "synthetic-access" )
+      private ImageContent retrieve( final String url ) throws Exception
+      {
+        try
+        {
+          final String host = HostBackoff.host(url);
+          {
+            final long blocked = hosts.blockedFor(host);
+            if ( blocked > 0L )
+              throw new HostDownException("Skipping image as " + host
+                  + " is not responding (will try again in "
+                  + TimeUnit.MILLISECONDS.toSeconds(blocked + 999L)
+                  + " seconds).");
+          }
+
           log.trace("Retriving image: {}", url);
           final ImageContent image;
           {
             // Retrieve image content from URL.
             final Connection conn = Conn.connect(url);
             conn.ignoreContentType(true);
-            final Response resp = conn.execute();
+            final Response resp;
+            final byte[] content;
+            try
+            {
+              resp = Conn.execute(conn);
+              content = resp.bodyAsBytes();
+            }
+            catch ( HttpStatusException ex )
+            {
+              // The host is up, unless it is overloaded or broken.
+              final int status = ex.getStatusCode();
+              if ( (status >= 500) || (status == 429) )
+                hosts.failure(host);
+              else
+                hosts.success(host);
+              throw ex;
+            }
+            catch ( IOException ex )
+            {
+              hosts.failure(host);
+              throw ex;
+            }
+            hosts.success(host);
+
             if ( resp.statusCode() != 200 )
               throw new IOException("GET " + url + " returned "
                   + resp.statusCode() + ": " + resp.statusMessage());
-            final byte[] content = resp.bodyAsBytes();
             if ( Arr.isEmpty(content) )
               throw new IOException("GET " + url + " returned zero bytes.");
 
-            String name = getName(url);
-            String ext = getExt(url);
+            String name = ImageNames.name(url);
+            String ext = ImageNames.extension(url);
             if ( ext == null )
             {
-              ext = getExt(resp);
+              ext = ImageNames.contentTypeExtension(resp
+                  .header("Content-Type"));
               if ( ext == null )
               {
-                ext = getExt(content);
+                ext = ImageNames.contentExtension(content);
                 if ( ext == null )
                   throw new IOException("Unknown extension for URL " + url);
               }
@@ -429,10 +637,25 @@ public final class ImageHandlerFactory
                 , filenameTransformer.transform(ext, ".image").toLowerCase());
           }
 
-          if ( (minWidth > 0) || (minHeight > 0) || convertToPng )
+          if ( (minWidth > 0) || (minHeight > 0) )
+          {
+            // Only need the header to check the size.
+            final ImageProbe.Info info = ImageProbe.probe(image.bytes());
+            if ( info == null )
+              throw new IOException("Doesn't appear to be an image.");
+
+            if ( (info.getWidth() <= minWidth)
+                || (info.getHeight() <= minHeight) )
+            {
+              log.trace("Image too small to be used: {}", url);
+              return new ImageContent(null, null, null);
+            }
+          }
+
+          if ( convertToPng && (scaler == null) )
           {
             final BufferedImage bimage;
-            final InputStream in = new ByteArrayInputStream(image.content);
+            final InputStream in = new ByteArrayInputStream(image.bytes());
             try
             {
               bimage = ImageIO.read(in);
@@ -445,28 +668,25 @@ public final class ImageHandlerFactory
             if ( bimage == null )
               throw new NullPointerException("Doesn't appear to be an image.");
 
-            if ( (bimage.getWidth() <= minWidth)
-                || (bimage.getHeight() <= minHeight) )
-            {
-              log.trace("Image too small to be used: {}", url);
-              return new ImageContent(null, null, null);
-            }
+            final ImageContent png = convert(bimage, image.getName());
+            log.trace("Retrieved image and converted to PNG: {}", url);
+            return keep(png);
+          }
 
-            if ( convertToPng )
-            {
-              final ImageContent png = convert(bimage, image.getName());
-              log.trace("Retrieved image and converted to PNG: {}", url);
-              return png;
-            }
+          if ( scaler != null )
+          {
+            final ImageContent scaled = scale(image, url);
+            if ( scaled != null )
+              return keep(scaled);
           }
 
           log.trace("Retrieved image: {}", url);
-          return image;
+          return keep(image);
         }
         catch ( Exception ex )
         {
-          log.trace("Exception while retriving image: " + url, ex);
-          return new ImageContent(null, null, ex.getMessage());
+          log.trace("Exception while retriving image: {}", url, ex);
+          throw ex;
         }
       }
 
@@ -486,148 +706,128 @@ public final class ImageHandlerFactory
       }
 
       /**
-       * Make sure name is all lower-case, starts with a letter, and only
-       * contains ASCII letters and numbers.
-       * 
-       * @param orig
-       * @return
+       * Move the content of a freshly loaded image to where the cache is to
+       * store it.
+       *
+       * @param image
+       * @return The image to be cached.
+       * @throws IOException
        */
-      private String cookName( final String orig )
+      private ImageContent keep( final ImageContent image ) throws IOException
       {
-        final Transform lower = new Transform() {
-          @Override
-          public String transform( final char ch )
-          {
-            final char newch = Character.toLowerCase(ch);
-            if ( newch == ch )
-              return null;
-            return String.valueOf(newch);
-          }
-        };
+        if ( (store == Store.HEAP) || (!image.isAvailable()) )
+          return image;
 
-        final Transform stripstd = new Transform() {
-          @Override
-          public String transform( final char ch )
+        final byte[] bytes = image.bytes();
+        if ( store == Store.DIRECT )
+        {
+          final ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+          buf.put(bytes);
+          buf.flip();
+          return new ImageContent(buf, null, image.getName(),
+              image.getExtension());
+        }
+
+        final File file = File.createTempFile("erudite", ".image");
+        file.deleteOnExit();
+        final ByteBuffer buf;
+        try
+        {
+          final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+          try
           {
-            if ( (ch < 'a') || (ch > 'z') )
-              if ( (ch < 'A') || (ch > 'Z') )
-                if ( (ch < '0') || (ch > '9') )
-                  return Str.EMPTY; // Remove
-            return null;
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer src = ByteBuffer.wrap(bytes);
+            while ( src.hasRemaining() )
+              channel.write(src);
+            // The mapping remains valid after the file is closed.
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes.length);
           }
-        };
-
-        final Transform stripinitial = new Transform() {
-          @Override
-          public String transform( final char ch )
+          finally
           {
-            if ( (ch < 'a') || (ch > 'z') )
-              if ( (ch < 'A') || (ch > 'Z') )
-                return Str.EMPTY; // Remove
-            return null;
+            raf.close();
           }
-        };
-
-        final Transform initial = new AndTransform(TransformAsciify.INSTANCE,
-            stripinitial, lower);
-        final Transform std = new AndTransform(TransformAsciify.INSTANCE,
-            stripstd, lower);
-
-        final int len = orig.length();
-        final StringBuilder buff = new StringBuilder(len);
-        int idx = 0;
-        while ( idx < len )
-        {
-          final char ch = orig.charAt(idx);
-          final String str = initial.transform(ch);
-          if ( str == null )
-            buff.append(ch);
-          else
-            buff.append(str);
-          ++idx;
-          if ( buff.length() > 0 )
-            break;
         }
-        while ( idx < len )
+        catch ( IOException ex )
         {
-          final char ch = orig.charAt(idx);
-          final String str = std.transform(ch);
-          if ( str == null )
-            buff.append(ch);
-          else
-            buff.append(str);
-          ++idx;
+          file.delete();
+          throw ex;
         }
-        return Str.ifEmpty(buff.toString(), null);
+        return new ImageContent(buf, file, image.getName(),
+            image.getExtension());
       }
 
-      private String getExt( final byte[] content )
-      {
-        final MimeUtil2 mu = new MimeUtil2();
-        mu.registerMimeDetector("eu.medsea.mimeutil.detector.MagicMimeMimeDetector");
-
-        final Collection<?> mimetypes = mu.getMimeTypes(content);
-        if ( (mimetypes == null) || mimetypes.isEmpty() )
-          return null;
-        final MimeType mt = MimeUtil2.getMostSpecificMimeType(mimetypes);
-        if ( (mt == null) || MimeUtil2.UNKNOWN_MIME_TYPE.equals(mt) )
-          return null;
-
-        if ( !"image".equals(mt.getMediaType()) )
-          return null;
-
-        final String ext = cookName(mt.getSubType());
-        if ( Str.isEmpty(ext) )
-          return null;
-
-        return "." + ext;
-      }
-
-      private String getExt( final Response resp )
+      /**
+       * Scale the image down (and convert to PNG if required.) If the image
+       * cannot be scaled we fall back to using the original image.
+       *
+       * @param image
+       * @param url
+       * @return The scaled image, or <code>null</code> to use the original.
+       * @throws IOException
+       */
+      private ImageContent scale( final ImageContent image, final String url )
+        throws IOException
       {
-        final String mimetype = resp.header("Content-Type");
-        final int end;
+        final ImageScaler.Scaled scaled;
+        try
         {
-          final int pos = mimetype.indexOf(' ');
-          end = (pos > 0) ? pos : mimetype.length();
+          scaled = scaler.scale(image.bytes(), convertToPng);
+        }
+        catch ( IOException ex )
+        {
+          log.trace("Could not scale image: {}", url, ex);
+          if ( !convertToPng )
+            return null;
+          final BufferedImage bimage = ImageIO
+              .read(new ByteArrayInputStream(image.bytes()));
+          if ( bimage == null )
+            throw ex;
+          return convert(bimage, image.getName());
         }
-        if ( (end <= 7) || (!mimetype.startsWith("image/")) )
-          return null;
-
-        final String ext = cookName(mimetype.substring(6, end));
-        if ( Str.isEmpty(ext) )
-          return null;
-
-        return "." + ext;
-      }
-
-      private String getExt( final String source )
-      {
-        final int end = getUrlEnd(source);
-        final String ext = cookName(FileName.extension(source.substring(0, end)));
-        final int extlen = Str.length(ext);
-        if ( (extlen > 0) && (extlen <= 3) )
-          return "." + ext;
-        return null;
-      }
 
-      private String getName( final String source )
-      {
-        final int end = getUrlEnd(source);
-        return Str.ifEmpty(cookName(FileName.sansExtension(FileName
-            .baseName(source.substring(0, end)))), "image");
-      }
+        if ( scaled == null )
+        {
+          if ( (!convertToPng) || ".png".equals(image.getExtension()) )
+            return null;
+          final BufferedImage bimage = ImageIO
+              .read(new ByteArrayInputStream(image.bytes()));
+          if ( bimage == null )
+            throw new NullPointerException("Doesn't appear to be an image.");
+          log.trace("Retrieved image and converted to PNG: {}", url);
+          return convert(bimage, image.getName());
+        }
 
-      private int getUrlEnd( final String url )
-      {
-        if ( url == null )
-          return 0;
-        int pos = url.indexOf('?');
-        if ( pos > 0 )
-          return pos;
-        return url.length();
+        log.trace("Retrieved image and scaled from {} to {} bytes: {}",
+          image.bytes().length, scaled.getContent().length, url);
+        return new ImageContent(scaled.getContent(), image.getName(),
+            scaled.getExtension());
       }
     });
+
+    // Only the most recently created factory is reported, which is fine as
+    // there is only ever one per run.
+    final LoadingCache<String, ImageContent> gauge_cache = cache;
+    Metrics.gauge("erudite_image_cache_size", "Images in the image cache.",
+      new Supplier<Long>() {
+        @Override
+        public Long get()
+        {
+          return Long.valueOf(gauge_cache.size());
+        }
+      });
+    Metrics.gauge("erudite_image_cache_weight_bytes",
+      "Approximate memory used by the images in the image cache.",
+      new Supplier<Long>() {
+        @Override
+        public Long get()
+        {
+          long weight = 0L;
+          for ( final ImageContent image : gauge_cache.asMap().values() )
+            weight += image.weight();
+          return Long.valueOf(weight);
+        }
+      });
   }
 
   /**
@@ -636,6 +836,51 @@ public final class ImageHandlerFactory
   public void clearCache()
   {
     cache.invalidateAll();
+    cache.cleanUp();
+    failures.invalidateAll();
+  }
+
+  /**
+   * Get an image from the cache, loading it if required. The cache only loads
+   * an image once, with any other threads wanting the same image waiting on
+   * that load. Failures are not cached with the images, but remembered
+   * separately for a short time, so we fail fast on images we have just
+   * failed to retrieve.
+   * 
+   * @param url
+   *        The URL of the image.
+   * @return The image.
+   * @throws HadIOException
+   *         If the image could not be retrieved.
+   */
+  private ImageContent load( final String url ) throws HadIOException
+  {
+    final String failed = failures.getIfPresent(url);
+    if ( failed != null )
+      throw new HadIOException(failed);
+
+    try
+    {
+      return cache.get(url);
+    }
+    catch ( ExecutionException ex )
+    {
+      throw failed(url, ex.getCause());
+    }
+    catch ( UncheckedExecutionException ex )
+    {
+      throw failed(url, ex.getCause());
+    }
+  }
+
+  private HadIOException failed( final String url, final Throwable cause )
+  {
+    final String msg = Str.ifEmpty(cause.getMessage(), cause.toString());
+    // Don't remember images skipped because the host is down, so they are
+    // retried as soon as the host is.
+    if ( !(cause instanceof HostDownException) )
+      failures.put(url, msg);
+    return new HadIOException(msg, cause);
   }
 
   /**
@@ -666,12 +911,12 @@ public final class ImageHandlerFactory
 
         try
         {
-          final ImageContent image = cache.get(url);
+          final ImageContent cached = cache.getIfPresent(url);
+          REQUESTS.inc((cached != null) ? "hit" : "miss");
+          final ImageContent image = (cached != null) ? cached : load(url);
+          RunReport.image(image.size(), cached != null);
           if ( !image.isAvailable() )
-          {
-            image.throwIfInError();
             return null;
-          }
 
           final File file;
           final String path;
@@ -0,0 +1,227 @@
+package com.evanmclean.erudite;
+
+import java.util.Collection;
+
+import com.evanmclean.erudite.misc.FileName;
+import com.evanmclean.evlib.lang.Str;
+import com.evanmclean.evlib.stringtransform.AndTransform;
+import com.evanmclean.evlib.stringtransform.Transform;
+import com.evanmclean.evlib.stringtransform.TransformAsciify;
+
+import eu.medsea.mimeutil.MimeType;
+import eu.medsea.mimeutil.MimeUtil2;
+
+/**
+ * Works out the file name and extension to use for an image from its URL,
+ * content type or content. Used by {@link ImageHandlerFactory}.
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+final class ImageNames
+{
+  /**
+   * The detector used when {@link ImageProbe} does not recognise the content.
+   * Building one loads the magic file, so it is only done once and on first
+   * use. Access to the detector is synchronised on the detector.
+   */
+  private static class MimeDetector
+  {
+    static final MimeUtil2 MU;
+
+    static
+    {
+      MU = new MimeUtil2();
+      MU.registerMimeDetector(
+        "eu.medsea.mimeutil.detector.MagicMimeMimeDetector");
+    }
+  }
+
+  /**
+   * The extension for an image based on its content.
+   *
+   * @param content
+   *        The image content.
+   * @return The extension (including the leading &ldquo;.&rdquo;), or
+   *         <code>null</code> if not recognised as an image.
+   */
+  static String contentExtension( final byte[] content )
+  {
+    final ImageProbe.Format format = ImageProbe.format(content);
+    if ( format != null )
+      return format.getExtension();
+
+    final Collection<?> mimetypes;
+    synchronized ( MimeDetector.MU )
+    {
+      mimetypes = MimeDetector.MU.getMimeTypes(content);
+    }
+    if ( (mimetypes == null) || mimetypes.isEmpty() )
+      return null;
+    final MimeType mt = MimeUtil2.getMostSpecificMimeType(mimetypes);
+    if ( (mt == null) || MimeUtil2.UNKNOWN_MIME_TYPE.equals(mt) )
+      return null;
+
+    if ( !"image".equals(mt.getMediaType()) )
+      return null;
+
+    final String ext = cookName(mt.getSubType());
+    if ( Str.isEmpty(ext) )
+      return null;
+
+    return "." + ext;
+  }
+
+  /**
+   * The extension for an image based on the <code>Content-Type</code> header
+   * it was served with.
+   *
+   * @param mimetype
+   *        The value of the <code>Content-Type</code> header (may be
+   *        <code>null</code>.)
+   * @return The extension (including the leading &ldquo;.&rdquo;), or
+   *         <code>null</code> if not an image type.
+   */
+  static String contentTypeExtension( final String mimetype )
+  {
+    if ( mimetype == null )
+      return null;
+    final int end;
+    {
+      final int pos = mimetype.indexOf(' ');
+      end = (pos > 0) ? pos : mimetype.length();
+    }
+    if ( (end <= 7) || (!mimetype.startsWith("image/")) )
+      return null;
+
+    final String ext = cookName(mimetype.substring(6, end));
+    if ( Str.isEmpty(ext) )
+      return null;
+
+    return "." + ext;
+  }
+
+  /**
+   * Make sure name is all lower-case, starts with a letter, and only contains
+   * ASCII letters and numbers.
+   *
+   * @param orig
+   * @return The cooked name, or <code>null</code> if there is nothing left.
+   */
+  static String cookName( final String orig )
+  {
+    final Transform lower = new Transform() {
+      @Override
+      public String transform( final char ch )
+      {
+        final char newch = Character.toLowerCase(ch);
+        if ( newch == ch )
+          return null;
+        return String.valueOf(newch);
+      }
+    };
+
+    final Transform stripstd = new Transform() {
+      @Override
+      public String transform( final char ch )
+      {
+        if ( (ch < 'a') || (ch > 'z') )
+          if ( (ch < 'A') || (ch > 'Z') )
+            if ( (ch < '0') || (ch > '9') )
+              return Str.EMPTY; // Remove
+        return null;
+      }
+    };
+
+    final Transform stripinitial = new Transform() {
+      @Override
+      public String transform( final char ch )
+      {
+        if ( (ch < 'a') || (ch > 'z') )
+          if ( (ch < 'A') || (ch > 'Z') )
+            return Str.EMPTY; // Remove
+        return null;
+      }
+    };
+
+    final Transform initial = new AndTransform(TransformAsciify.INSTANCE,
+        stripinitial, lower);
+    final Transform std = new AndTransform(TransformAsciify.INSTANCE, stripstd,
+        lower);
+
+    final int len = orig.length();
+    final StringBuilder buff = new StringBuilder(len);
+    int idx = 0;
+    while ( idx < len )
+    {
+      final char ch = orig.charAt(idx);
+      final String str = initial.transform(ch);
+      if ( str == null )
+        buff.append(ch);
+      else
+        buff.append(str);
+      ++idx;
+      if ( buff.length() > 0 )
+        break;
+    }
+    while ( idx < len )
+    {
+      final char ch = orig.charAt(idx);
+      final String str = std.transform(ch);
+      if ( str == null )
+        buff.append(ch);
+      else
+        buff.append(str);
+      ++idx;
+    }
+    return Str.ifEmpty(buff.toString(), null);
+  }
+
+  /**
+   * The extension for an image based on its URL.
+   *
+   * @param source
+   *        The URL of the image.
+   * @return The extension (including the leading &ldquo;.&rdquo;), or
+   *         <code>null</code> if the URL does not have a usable one.
+   */
+  static String extension( final String source )
+  {
+    final int end = urlEnd(source);
+    final String ext = cookName(FileName.extension(source.substring(0, end)));
+    final int extlen = Str.length(ext);
+    if ( (extlen > 0) && (extlen <= 3) )
+      return "." + ext;
+    return null;
+  }
+
+  /**
+   * The base name (without extension) to use for an image based on its URL.
+   *
+   * @param source
+   *        The URL of the image.
+   * @return The name.
+   */
+  static String name( final String source )
+  {
+    final int end = urlEnd(source);
+    return Str.ifEmpty(cookName(FileName.sansExtension(FileName
+        .baseName(source.substring(0, end)))), "image");
+  }
+
+  private static int urlEnd( final String url )
+  {
+    if ( url == null )
+      return 0;
+    int pos = url.indexOf('?');
+    if ( pos > 0 )
+      return pos;
+    return url.length();
+  }
+
+  private ImageNames()
+  {
+    // empty
+  }
+}
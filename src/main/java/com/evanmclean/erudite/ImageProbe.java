@@ -0,0 +1,380 @@
+package com.evanmclean.erudite;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * <p>
+ * Works out the format and size of an image from its header, without decoding
+ * any of the pixels. Used by {@link ImageHandlerFactory} so it only needs to
+ * fully decode an image when it is actually going to convert it.
+ * </p>
+ *
+ * <p>
+ * PNG, GIF, JPEG and WebP headers are parsed directly. For anything else we ask
+ * the appropriate {@link ImageReader}, which for most formats only reads as far
+ * as the header to report the size.
+ * </p>
+ *
+ * <p>
+ * The magic number table in {@link #format(byte[])} (which also recognises SVG
+ * and AVIF) is used to choose the file name extension for an image, so the
+ * much slower general purpose MIME detection is only needed for anything
+ * else.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+final class ImageProbe
+{
+  /**
+   * The image formats we recognise from their headers.
+   */
+  enum Format
+  {
+    PNG(".png"), GIF(".gif"), JPEG(".jpg"), WEBP(".webp"), SVG(".svg"),
+    AVIF(".avif");
+
+    private final String extension;
+
+    private Format( final String extension )
+    {
+      this.extension = extension;
+    }
+
+    /**
+     * The file name extension (including the leading &ldquo;.&rdquo;) to use
+     * for this format.
+     *
+     * @return The file name extension.
+     */
+    String getExtension()
+    {
+      return extension;
+    }
+  }
+
+  private static final int SVG_SNIFF_LEN = 1024;
+
+  /**
+   * The format and dimensions of an image.
+   */
+  static class Info
+  {
+    private final Format format;
+    private final int width;
+    private final int height;
+
+    Info( final Format format, final int width, final int height )
+    {
+      this.format = format;
+      this.width = width;
+      this.height = height;
+    }
+
+    /**
+     * The format of the image, or <code>null</code> if it was not one we parse
+     * directly.
+     *
+     * @return The format of the image or <code>null</code>.
+     */
+    Format getFormat()
+    {
+      return format;
+    }
+
+    int getHeight()
+    {
+      return height;
+    }
+
+    int getWidth()
+    {
+      return width;
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.valueOf(format) + ' ' + width + 'x' + height;
+    }
+  }
+
+  /**
+   * The format of the image based on the magic number at the start of the
+   * content.
+   *
+   * @param content
+   *        The image content.
+   * @return The format or <code>null</code> if not recognised.
+   */
+  static Format format( final byte[] content )
+  {
+    if ( startsWith(content, 0, 0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a) )
+      return Format.PNG;
+    if ( startsWith(content, 0, 'G', 'I', 'F', '8') )
+      return Format.GIF;
+    if ( startsWith(content, 0, 0xff, 0xd8, 0xff) )
+      return Format.JPEG;
+    if ( startsWith(content, 0, 'R', 'I', 'F', 'F')
+        && startsWith(content, 8, 'W', 'E', 'B', 'P') )
+      return Format.WEBP;
+    if ( isAvif(content) )
+      return Format.AVIF;
+    if ( isSvg(content) )
+      return Format.SVG;
+    return null;
+  }
+
+  /**
+   * Get the format and dimensions of the image, only reading the image header.
+   *
+   * @param content
+   *        The image content.
+   * @return The format and dimensions, or <code>null</code> if it does not
+   *         appear to be an image.
+   * @throws IOException
+   */
+  static Info probe( final byte[] content ) throws IOException
+  {
+    final Format format = format(content);
+    if ( format != null )
+    {
+      final Info info = parse(format, content);
+      if ( info != null )
+        return info;
+    }
+    return read(format, content);
+  }
+
+  private static int be16( final byte[] buf, final int pos )
+  {
+    return ((buf[pos] & 0xff) << 8) | (buf[pos + 1] & 0xff);
+  }
+
+  private static int be32( final byte[] buf, final int pos )
+  {
+    return ((buf[pos] & 0xff) << 24) | ((buf[pos + 1] & 0xff) << 16)
+        | ((buf[pos + 2] & 0xff) << 8) | (buf[pos + 3] & 0xff);
+  }
+
+  /**
+   * An ISO base media file with a <code>ftyp</code> box listing an AVIF brand.
+   *
+   * @param buf
+   * @return
+   */
+  private static boolean isAvif( final byte[] buf )
+  {
+    if ( !startsWith(buf, 4, 'f', 't', 'y', 'p') )
+      return false;
+    final int end = Math.min(buf.length, be32(buf, 0));
+    // Major brand, minor version, then the compatible brands.
+    for ( int pos = 8; (pos + 4) <= end; pos += (pos == 8) ? 8 : 4 )
+      if ( startsWith(buf, pos, 'a', 'v', 'i', 'f')
+          || startsWith(buf, pos, 'a', 'v', 'i', 's') )
+        return true;
+    return false;
+  }
+
+  /**
+   * Text (possibly starting with an XML declaration, comments or a doctype)
+   * with an <code>&lt;svg</code> element near the start.
+   *
+   * @param buf
+   * @return
+   */
+  private static boolean isSvg( final byte[] buf )
+  {
+    if ( buf == null )
+      return false;
+    int pos = startsWith(buf, 0, 0xef, 0xbb, 0xbf) ? 3 : 0;
+    while ( (pos < buf.length) && (buf[pos] <= ' ') && (buf[pos] >= 0) )
+      ++pos;
+    if ( (pos >= buf.length) || (buf[pos] != '<') )
+      return false;
+    final int end = Math.min(buf.length, SVG_SNIFF_LEN) - 4;
+    for ( ; pos <= end; ++pos )
+      if ( startsWith(buf, pos, '<', 's', 'v', 'g') )
+        return true;
+    return false;
+  }
+
+  private static int le16( final byte[] buf, final int pos )
+  {
+    return (buf[pos] & 0xff) | ((buf[pos + 1] & 0xff) << 8);
+  }
+
+  private static int le24( final byte[] buf, final int pos )
+  {
+    return (buf[pos] & 0xff) | ((buf[pos + 1] & 0xff) << 8)
+        | ((buf[pos + 2] & 0xff) << 16);
+  }
+
+  private static Info parse( final Format format, final byte[] buf )
+  {
+    switch ( format )
+    {
+      case PNG:
+        // Signature, then the IHDR chunk length and type, then width and
+        // height.
+        if ( (buf.length >= 24) && startsWith(buf, 12, 'I', 'H', 'D', 'R') )
+          return valid(format, be32(buf, 16), be32(buf, 20));
+        return null;
+
+      case GIF:
+        // Logical screen descriptor follows the six byte signature.
+        if ( buf.length >= 10 )
+          return valid(format, le16(buf, 6), le16(buf, 8));
+        return null;
+
+      case JPEG:
+        return parseJpeg(buf);
+
+      case WEBP:
+        return parseWebp(buf);
+
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Walk the JPEG markers until we find a start of frame.
+   *
+   * @param buf
+   * @return
+   */
+  private static Info parseJpeg( final byte[] buf )
+  {
+    int pos = 2;
+    while ( (pos + 4) <= buf.length )
+    {
+      if ( (buf[pos] & 0xff) != 0xff )
+        return null;
+      final int marker = buf[pos + 1] & 0xff;
+      if ( marker == 0xff )
+      {
+        // Fill byte.
+        ++pos;
+        continue;
+      }
+      if ( (marker == 0x01) || ((marker >= 0xd0) && (marker <= 0xd7)) )
+      {
+        // Markers without a length.
+        pos += 2;
+        continue;
+      }
+      if ( (marker >= 0xc0) && (marker <= 0xcf) && (marker != 0xc4)
+          && (marker != 0xc8) && (marker != 0xcc) )
+      {
+        // Start of frame: length, precision, height, width.
+        if ( (pos + 9) > buf.length )
+          return null;
+        return valid(Format.JPEG, be16(buf, pos + 7), be16(buf, pos + 5));
+      }
+      if ( (marker == 0xd9) || (marker == 0xda) )
+        return null; // End of image or start of scan before any frame.
+      pos += 2 + be16(buf, pos + 2);
+    }
+    return null;
+  }
+
+  private static Info parseWebp( final byte[] buf )
+  {
+    if ( buf.length < 30 )
+      return null;
+    if ( startsWith(buf, 12, 'V', 'P', '8', ' ') )
+    {
+      // Lossy: frame tag, start code, then 14 bit width and height.
+      if ( !startsWith(buf, 23, 0x9d, 0x01, 0x2a) )
+        return null;
+      return valid(Format.WEBP, le16(buf, 26) & 0x3fff,
+        le16(buf, 28) & 0x3fff);
+    }
+    if ( startsWith(buf, 12, 'V', 'P', '8', 'L') )
+    {
+      // Lossless: signature, then 14 bits each of width - 1 and height - 1.
+      if ( (buf[20] & 0xff) != 0x2f )
+        return null;
+      final int bits = (buf[21] & 0xff) | ((buf[22] & 0xff) << 8)
+          | ((buf[23] & 0xff) << 16) | ((buf[24] & 0xff) << 24);
+      return valid(Format.WEBP, (bits & 0x3fff) + 1,
+        ((bits >> 14) & 0x3fff) + 1);
+    }
+    if ( startsWith(buf, 12, 'V', 'P', '8', 'X') )
+    {
+      // Extended: flags, then 24 bits each of width - 1 and height - 1.
+      return valid(Format.WEBP, le24(buf, 24) + 1, le24(buf, 27) + 1);
+    }
+    return null;
+  }
+
+  /**
+   * Fall back to asking an image reader for the size.
+   *
+   * @param format
+   * @param content
+   * @return
+   * @throws IOException
+   */
+  private static Info read( final Format format, final byte[] content )
+    throws IOException
+  {
+    final ImageInputStream iis = ImageIO
+        .createImageInputStream(new ByteArrayInputStream(content));
+    if ( iis == null )
+      return null;
+    try
+    {
+      final Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+      if ( !readers.hasNext() )
+        return null;
+      final ImageReader reader = readers.next();
+      try
+      {
+        reader.setInput(iis, true, true);
+        return valid(format, reader.getWidth(0), reader.getHeight(0));
+      }
+      finally
+      {
+        reader.dispose();
+      }
+    }
+    finally
+    {
+      iis.close();
+    }
+  }
+
+  private static boolean startsWith( final byte[] buf, final int offset,
+      final int... magic )
+  {
+    if ( (buf == null) || (buf.length < (offset + magic.length)) )
+      return false;
+    for ( int xi = 0; xi < magic.length; ++xi )
+      if ( (buf[offset + xi] & 0xff) != magic[xi] )
+        return false;
+    return true;
+  }
+
+  private static Info valid( final Format format, final int width,
+      final int height )
+  {
+    if ( (width <= 0) || (height <= 0) )
+      return null;
+    return new Info(format, width, height);
+  }
+
+  private ImageProbe()
+  {
+    // empty
+  }
+}
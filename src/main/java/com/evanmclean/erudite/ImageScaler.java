@@ -0,0 +1,390 @@
+package com.evanmclean.erudite;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import com.evanmclean.erudite.config.Config;
+import com.evanmclean.evlib.lang.Str;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * <p>
+ * Downscales and recompresses images so they suit the target e&ndash;reader
+ * device. Used by {@link ImageHandlerFactory}.
+ * </p>
+ *
+ * <p>
+ * Images are read with a streaming {@link ImageReader} and source subsampling,
+ * so a large image is never decoded at full resolution. The reader only
+ * decodes enough pixels to produce an image at least as big as the target
+ * size, which is then resampled to the exact size.
+ * </p>
+ *
+ * <p>
+ * Animated GIFs are left alone, as are images that would not come out any
+ * smaller.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+final class ImageScaler
+{
+  /**
+   * The screen size and type of an e&ndash;reader device, keyed by the
+   * ebook-convert output profile name.
+   */
+  private static class Profile
+  {
+    final int width;
+    final int height;
+    final boolean eink;
+
+    Profile( final int width, final int height, final boolean eink )
+    {
+      this.width = width;
+      this.height = height;
+      this.eink = eink;
+    }
+  }
+
+  /**
+   * The result of scaling an image.
+   */
+  static class Scaled
+  {
+    private final byte[] content;
+    private final String extension;
+
+    Scaled( final byte[] content, final String extension )
+    {
+      this.content = content;
+      this.extension = extension;
+    }
+
+    byte[] getContent()
+    {
+      return content;
+    }
+
+    String getExtension()
+    {
+      return extension;
+    }
+  }
+
+  /**
+   * Approximate screen sizes for the ebook-convert output profiles.
+   */
+  private static final ImmutableMap<String, Profile> PROFILES = ImmutableMap
+      .<String, Profile> builder() //
+      .put("generic_eink", new Profile(590, 775, true)) //
+      .put("generic_eink_hd", new Profile(1072, 1448, true)) //
+      .put("generic_eink_large", new Profile(600, 999, true)) //
+      .put("ipad", new Profile(768, 1024, false)) //
+      .put("ipad3", new Profile(1536, 2048, false)) //
+      .put("kindle", new Profile(525, 640, true)) //
+      .put("kindle_dx", new Profile(744, 1022, true)) //
+      .put("kindle_fire", new Profile(570, 1016, false)) //
+      .put("kindle_oasis", new Profile(1264, 1680, true)) //
+      .put("kindle_pw", new Profile(658, 940, true)) //
+      .put("kindle_pw3", new Profile(1072, 1430, true)) //
+      .put("kindle_voyage", new Profile(1080, 1430, true)) //
+      .put("kobo", new Profile(536, 710, true)) //
+      .put("nook", new Profile(600, 730, true)) //
+      .put("nook_color", new Profile(600, 900, false)) //
+      .put("nook_hd_plus", new Profile(1280, 1920, false)) //
+      .put("pocketbook_900", new Profile(810, 1180, true)) //
+      .put("sony", new Profile(590, 775, true)) //
+      .put("sony300", new Profile(590, 775, true)) //
+      .put("sony900", new Profile(990, 1200, true)) //
+      .build();
+
+  private static final int DEFAULT_JPEG_QUALITY = 80;
+
+  /**
+   * Create the scaler based on settings in the configuration file (see user
+   * documentation.)
+   *
+   * @param config
+   *        Configuration to use.
+   * @return The scaler, or <code>null</code> if images are not to be scaled.
+   */
+  static ImageScaler create( final Config config )
+  {
+    // Not taken from ebookconvert.outputprofile, so scaling is only done
+    // when asked for.
+    final String profile_name = config.getString("image.profile", null);
+    final Profile profile;
+    if ( Str.isEmpty(profile_name) )
+    {
+      profile = null;
+    }
+    else
+    {
+      profile = PROFILES.get(profile_name.trim().toLowerCase());
+      if ( profile == null )
+        throw new IllegalStateException(
+            "Unknown value for configuration variable image.profile: "
+                + profile_name);
+    }
+
+    final int max_width = config.getInt("image.max.width",
+      (profile == null) ? 0 : profile.width);
+    final int max_height = config.getInt("image.max.height",
+      (profile == null) ? 0 : profile.height);
+    final boolean grayscale = config.getBoolean("image.grayscale",
+      (profile != null) && profile.eink);
+    final int quality = config.getInt("image.jpeg.quality",
+      DEFAULT_JPEG_QUALITY);
+    if ( (quality < 1) || (quality > 100) )
+      throw new IllegalStateException(
+          "Invalid value for configuration variable image.jpeg.quality: "
+              + quality);
+
+    if ( (max_width <= 0) && (max_height <= 0) && (!grayscale) )
+      return null;
+    return new ImageScaler(max_width, max_height, grayscale, quality);
+  }
+
+  private final int maxWidth;
+  private final int maxHeight;
+  private final boolean grayscale;
+  private final float jpegQuality;
+
+  /**
+   * @param max_width
+   *        Maximum width of an image (zero or less for unlimited).
+   * @param max_height
+   *        Maximum height of an image (zero or less for unlimited).
+   * @param grayscale
+   *        Convert images to grayscale.
+   * @param jpeg_quality
+   *        The quality (1 to 100) to use when compressing as a JPEG.
+   */
+  ImageScaler( final int max_width, final int max_height,
+      final boolean grayscale, final int jpeg_quality )
+  {
+    this.maxWidth = (max_width > 0) ? max_width : Integer.MAX_VALUE;
+    this.maxHeight = (max_height > 0) ? max_height : Integer.MAX_VALUE;
+    this.grayscale = grayscale;
+    this.jpegQuality = Math.max(1, Math.min(100, jpeg_quality)) / 100.0F;
+  }
+
+  /**
+   * Scale and recompress an image if required.
+   *
+   * @param content
+   *        The original image content.
+   * @param to_png
+   *        Always produce a PNG image. Otherwise opaque images are produced as
+   *        JPEGs and images with transparency as PNGs.
+   * @return The scaled image, or <code>null</code> if the image does not need
+   *         to be changed (or would not be any smaller.)
+   * @throws IOException
+   *         If the image could not be read.
+   */
+  Scaled scale( final byte[] content, final boolean to_png )
+    throws IOException
+  {
+    final ImageInputStream iis = ImageIO
+        .createImageInputStream(new ByteArrayInputStream(content));
+    if ( iis == null )
+      throw new IOException("Cannot create image input stream.");
+    try
+    {
+      final Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+      if ( !readers.hasNext() )
+        throw new IOException("Doesn't appear to be an image.");
+      final ImageReader reader = readers.next();
+      try
+      {
+        // Not seek forward only, so we can count the frames of a GIF.
+        reader.setInput(iis, false, true);
+        if ( "gif".equalsIgnoreCase(reader.getFormatName())
+            && (reader.getNumImages(true) > 1) )
+          return null;
+
+        final int width = reader.getWidth(0);
+        final int height = reader.getHeight(0);
+        if ( (width <= 0) || (height <= 0) )
+          throw new IOException("Invalid image size.");
+
+        final double factor = Math.min(1.0D, Math.min(
+          (double) maxWidth / width, (double) maxHeight / height));
+        if ( (factor >= 1.0D) && ((!grayscale) || isGray(reader)) )
+          return null;
+
+        final int target_width = Math.max(1, (int) Math.round(width * factor));
+        final int target_height = Math
+            .max(1, (int) Math.round(height * factor));
+
+        // Subsample so we decode no more than about twice the target size in
+        // each direction.
+        final int sub = Math.max(1,
+          Math.min(width / target_width, height / target_height) / 2);
+        final ImageReadParam param = reader.getDefaultReadParam();
+        if ( sub > 1 )
+          param.setSourceSubsampling(sub, sub, 0, 0);
+        final BufferedImage src = reader.read(0, param);
+
+        final boolean alpha = src.getColorModel().hasAlpha();
+        final BufferedImage dst = resample(src, target_width, target_height,
+          alpha);
+
+        final Scaled scaled = (to_png || alpha) ? new Scaled(writePng(dst),
+            ".png") : new Scaled(writeJpeg(dst), ".jpg");
+
+        // Didn't make it any smaller, so keep the original (unless it has
+        // to be converted to a PNG anyway.)
+        if ( (scaled.getContent().length >= content.length)
+            && ((!to_png) || "png".equalsIgnoreCase(reader.getFormatName())) )
+          return null;
+        return scaled;
+      }
+      finally
+      {
+        reader.dispose();
+      }
+    }
+    finally
+    {
+      iis.close();
+    }
+  }
+
+  private boolean isGray( final ImageReader reader ) throws IOException
+  {
+    final ImageTypeSpecifier type = reader.getRawImageType(0);
+    return (type != null) && (type.getColorModel().getColorSpace()
+        .getType() == ColorSpace.TYPE_GRAY);
+  }
+
+  private BufferedImage resample( final BufferedImage src, final int width,
+      final int height, final boolean alpha )
+  {
+    final int type;
+    if ( grayscale && (!alpha) )
+      type = BufferedImage.TYPE_BYTE_GRAY;
+    else
+      type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+    final BufferedImage dst = new BufferedImage(width, height, type);
+    final Graphics2D gr = dst.createGraphics();
+    try
+    {
+      gr.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      gr.setRenderingHint(RenderingHints.KEY_RENDERING,
+        RenderingHints.VALUE_RENDER_QUALITY);
+      gr.drawImage(src, 0, 0, width, height, null);
+    }
+    finally
+    {
+      gr.dispose();
+    }
+
+    if ( grayscale && alpha )
+      toGrayscale(dst);
+    return dst;
+  }
+
+  /**
+   * Convert an ARGB image to grayscale in place, preserving transparency.
+   *
+   * @param image
+   */
+  private void toGrayscale( final BufferedImage image )
+  {
+    final int width = image.getWidth();
+    final int height = image.getHeight();
+    final int[] row = new int[width];
+    for ( int yi = 0; yi < height; ++yi )
+    {
+      image.getRGB(0, yi, width, 1, row, 0, width);
+      for ( int xi = 0; xi < width; ++xi )
+      {
+        final int argb = row[xi];
+        final int lum = ((((argb >> 16) & 0xff) * 77)
+            + (((argb >> 8) & 0xff) * 150) + ((argb & 0xff) * 29)) >> 8;
+        row[xi] = (argb & 0xff000000) | (lum << 16) | (lum << 8) | lum;
+      }
+      image.setRGB(0, yi, width, 1, row, 0, width);
+    }
+  }
+
+  private byte[] writeJpeg( final BufferedImage image ) throws IOException
+  {
+    final Iterator<ImageWriter> writers = ImageIO
+        .getImageWritersByFormatName("jpeg");
+    if ( !writers.hasNext() )
+      throw new IOException("No JPEG image writer available.");
+    final ImageWriter writer = writers.next();
+    try
+    {
+      final ImageWriteParam param = writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(jpegQuality);
+
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final ImageOutputStream ios = ImageIO.createImageOutputStream(out);
+      try
+      {
+        writer.setOutput(ios);
+        writer.write(null, new IIOImage(image, null, null), param);
+      }
+      finally
+      {
+        ios.close();
+      }
+      return out.toByteArray();
+    }
+    finally
+    {
+      writer.dispose();
+    }
+  }
+
+  private byte[] writePng( final BufferedImage image ) throws IOException
+  {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try
+    {
+      if ( !ImageIO.write(image, "png", out) )
+        throw new IOException("No PNG image writer available.");
+    }
+    finally
+    {
+      out.close();
+    }
+    return out.toByteArray();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ImageScaler(" //
+        + ((maxWidth == Integer.MAX_VALUE) ? "*" : String.valueOf(maxWidth)) //
+        + 'x' //
+        + ((maxHeight == Integer.MAX_VALUE) ? "*" : String.valueOf(maxHeight))
+        + (grayscale ? ", grayscale" : Str.EMPTY) //
+        + ", quality " + Math.round(jpegQuality * 100.0F) + ')';
+  }
+}
@@ -0,0 +1,374 @@
+package com.evanmclean.erudite;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.evanmclean.erudite.misc.Urls;
+import com.evanmclean.evlib.charset.Charsets;
+import com.evanmclean.evlib.util.Colls;
+import com.google.common.hash.Hashing;
+
+/**
+ * <p>
+ * Remembers which articles have been delivered (made it through all the
+ * processors) and completed (had the source's on complete action done), so if
+ * the source action fails, e.g., Instapaper times out archiving the article,
+ * the next run only retries the source action instead of producing and adding
+ * the same document to Calibre again. Thread safe.
+ * </p>
+ *
+ * <p>
+ * Articles are keyed by their original URL (in the form given by
+ * {@link Urls#canonical(String)}, so the same article saved with different
+ * tracking parameters is still found) plus a hash of their content, so an
+ * article that has changed since it was delivered is processed again. The
+ * content can be ignored, so articles are matched on URL alone; the text from
+ * one source never hashes the same as from another, so this is the only way
+ * an article delivered from one source is spotted when it is found in the
+ * other. The
+ * ledger is a text file that is only ever appended to (and synced to disk) as
+ * articles are delivered and completed, with one line per change:
+ * </p>
+ *
+ * <pre>
+ * state time hash url
+ * </pre>
+ *
+ * <p>
+ * The last line for a URL wins, and a partly written line from a crash is
+ * ignored. When opened, the file is compacted down to one line per article if
+ * it has grown to more than twice that, dropping completed articles older than
+ * the number of days to keep.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+public class Ledger
+{
+  /**
+   * The state of an article in the ledger.
+   */
+  public enum State
+  {
+    /**
+     * The article has been through all the processors, but the source's on
+     * complete action has not been done.
+     */
+    DELIVERED('D'),
+    /**
+     * The article has been through all the processors and the source's on
+     * complete action has been done.
+     */
+    COMPLETED('C');
+
+    static State get( final char code )
+    {
+      for ( final State state : values() )
+        if ( state.code == code )
+          return state;
+      return null;
+    }
+
+    final char code;
+
+    private State( final char code )
+    {
+      this.code = code;
+    }
+  }
+
+  private static class Entry
+  {
+    final State state;
+    final long time;
+    final String hash;
+
+    Entry( final State state, final long time, final String hash )
+    {
+      this.state = state;
+      this.time = time;
+      this.hash = hash;
+    }
+  }
+
+  /**
+   * Hash of the content of an article, to be passed to the other methods.
+   *
+   * @param article
+   *        The article.
+   * @return The hash of the text of the article.
+   * @throws IOException
+   */
+  public static String hash( final Article article ) throws IOException
+  {
+    return Hashing.sha256()
+        .hashString(article.text().outerHtml(), Charsets.UTF8).toString();
+  }
+
+  private final Logger log = LoggerFactory.getLogger(Ledger.class);
+  private final File file;
+  private final boolean matchContent;
+  private final Map<String, Entry> entries = Colls.newHashMap();
+  private FileOutputStream out;
+  private Writer writer;
+
+  /**
+   * Open the ledger, creating it if it does not exist.
+   *
+   * @param file
+   *        The ledger file.
+   * @param keep_days
+   *        Completed articles older than this are dropped when the ledger is
+   *        compacted.
+   * @param match_content
+   *        True if an article only matches when its content is the same as
+   *        when it was delivered, false to match on URL alone.
+   * @throws IOException
+   */
+  public Ledger( final File file, final int keep_days,
+      final boolean match_content ) throws IOException
+  {
+    this.file = file;
+    this.matchContent = match_content;
+    final int lines = read();
+
+    final long cutoff = System.currentTimeMillis()
+        - TimeUnit.DAYS.toMillis(Math.max(1, keep_days));
+    int dropped = 0;
+    for ( final Map.Entry<String, Entry> me : Colls.newArrayList(entries
+        .entrySet()) )
+    {
+      final Entry entry = me.getValue();
+      if ( (entry.state == State.COMPLETED) && (entry.time < cutoff) )
+      {
+        entries.remove(me.getKey());
+        ++dropped;
+      }
+    }
+
+    if ( (dropped > 0) || (lines > (entries.size() * 2)) || isTorn() )
+      compact();
+    open();
+  }
+
+  /**
+   * Close the ledger file.
+   *
+   * @throws IOException
+   */
+  public synchronized void close() throws IOException
+  {
+    if ( writer != null )
+    {
+      writer.close();
+      writer = null;
+      out = null;
+    }
+  }
+
+  /**
+   * Record that the source's on complete action has been done for the article.
+   *
+   * @param article
+   *        The article.
+   * @param hash
+   *        The {@link #hash(Article)} of the article.
+   * @throws IOException
+   */
+  public void completed( final Article article, final String hash )
+    throws IOException
+  {
+    append(State.COMPLETED, key(article), hash);
+  }
+
+  /**
+   * Record that the article has been through all the processors.
+   *
+   * @param article
+   *        The article.
+   * @param hash
+   *        The {@link #hash(Article)} of the article.
+   * @throws IOException
+   */
+  public void delivered( final Article article, final String hash )
+    throws IOException
+  {
+    append(State.DELIVERED, key(article), hash);
+  }
+
+  /**
+   * The state of the article in the ledger.
+   *
+   * @param article
+   *        The article.
+   * @param hash
+   *        The {@link #hash(Article)} of the article.
+   * @return The state of the article, or <code>null</code> if it is not in the
+   *         ledger or (when matching content) its content has changed.
+   */
+  public synchronized State get( final Article article, final String hash )
+  {
+    final Entry entry = entries.get(key(article));
+    if ( (entry == null) || (matchContent && (!entry.hash.equals(hash))) )
+      return null;
+    return entry.state;
+  }
+
+  /**
+   * Is the article in the ledger at all (without checking its content)? Used
+   * to avoid working out the hash for articles we haven't seen before.
+   *
+   * @param article
+   *        The article.
+   * @return True if the original URL of the article is in the ledger.
+   */
+  public synchronized boolean has( final Article article )
+  {
+    return entries.containsKey(key(article));
+  }
+
+  private synchronized void append( final State state, final String url,
+      final String hash ) throws IOException
+  {
+    if ( writer == null )
+      throw new IOException("Ledger is closed: " + file);
+    if ( (url == null) || (url.indexOf('\n') >= 0)
+        || (url.indexOf('\r') >= 0) )
+      return;
+    final long time = System.currentTimeMillis();
+    entries.put(url, new Entry(state, time, hash));
+    write(writer, url, entries.get(url));
+    writer.flush();
+    out.getFD().sync();
+  }
+
+  private void compact() throws IOException
+  {
+    log.trace("Compacting ledger {} to {} articles.", file,
+      String.valueOf(entries.size()));
+    final File tmp = new File(file.getPath() + ".tmp");
+    final FileOutputStream tmp_out = new FileOutputStream(tmp);
+    final Writer tmp_writer = new OutputStreamWriter(tmp_out, Charsets.UTF8);
+    try
+    {
+      for ( final Map.Entry<String, Entry> me : entries.entrySet() )
+        write(tmp_writer, me.getKey(), me.getValue());
+      tmp_writer.flush();
+      tmp_out.getFD().sync();
+    }
+    finally
+    {
+      tmp_writer.close();
+    }
+    if ( !tmp.renameTo(file) )
+    {
+      file.delete();
+      if ( !tmp.renameTo(file) )
+        throw new IOException("Could not rename " + tmp + " to " + file);
+    }
+  }
+
+  /**
+   * Does the file end with a partly written line? If so we need to compact it,
+   * or the next line appended would be joined on to it.
+   */
+  private boolean isTorn() throws IOException
+  {
+    if ( !file.exists() || (file.length() <= 0) )
+      return false;
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try
+    {
+      raf.seek(raf.length() - 1);
+      return raf.read() != '\n';
+    }
+    finally
+    {
+      raf.close();
+    }
+  }
+
+  private String key( final Article article )
+  {
+    return Urls.canonical(article.getOriginalUrl());
+  }
+
+  private void open() throws IOException
+  {
+    final File parent = file.getAbsoluteFile().getParentFile();
+    if ( parent != null )
+      parent.mkdirs();
+    out = new FileOutputStream(file, true);
+    writer = new OutputStreamWriter(out, Charsets.UTF8);
+  }
+
+  private int read() throws IOException
+  {
+    if ( !file.exists() )
+      return 0;
+
+    int lines = 0;
+    final BufferedReader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), Charsets.UTF8));
+    try
+    {
+      String line;
+      while ( (line = in.readLine()) != null )
+      {
+        ++lines;
+        final String[] parts = line.split(" ", 4);
+        final State state = (parts.length == 4) && (parts[0].length() == 1)
+            ? State.get(parts[0].charAt(0)) : null;
+        if ( state == null )
+        {
+          // Probably the last line being written when we crashed.
+          log.debug("Ignoring bad line {} in ledger {}", String.valueOf(lines),
+            file);
+          continue;
+        }
+        try
+        {
+          entries.put(Urls.canonical(parts[3]),
+            new Entry(state, Long.parseLong(parts[1]), parts[2]));
+        }
+        catch ( NumberFormatException ex )
+        {
+          log.debug("Ignoring bad line {} in ledger {}", String.valueOf(lines),
+            file);
+        }
+      }
+    }
+    finally
+    {
+      in.close();
+    }
+    return lines;
+  }
+
+  private void write( final Writer wrt, final String url, final Entry entry )
+    throws IOException
+  {
+    wrt.write(entry.state.code);
+    wrt.write(' ');
+    wrt.write(String.valueOf(entry.time));
+    wrt.write(' ');
+    wrt.write(entry.hash);
+    wrt.write(' ');
+    wrt.write(url);
+    wrt.write('\n');
+  }
+}
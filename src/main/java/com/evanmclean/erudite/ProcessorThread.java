@@ -2,14 +2,15 @@ package com.evanmclean.erudite;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.evanmclean.erudite.jfr.Events;
 import com.evanmclean.erudite.logback.Logback;
+import com.evanmclean.erudite.misc.Metrics;
 import com.evanmclean.evlib.io.Folders;
 import com.google.common.collect.ImmutableList;
 
@@ -23,16 +24,46 @@ import com.google.common.collect.ImmutableList;
  */
 public class ProcessorThread extends Thread
 {
+  /**
+   * What became of an article taken off the queue.
+   */
+  private static enum Outcome
+  {
+    /** Processed without error. */
+    PROCESSED("ok"),
+    /** Processing failed. */
+    FAILED("error"),
+    /** Not processed, as a duplicate or already in the ledger. */
+    SKIPPED("skipped");
+
+    /** The value of the result label of the articles metric. */
+    final String result;
+
+    private Outcome( final String result )
+    {
+      this.result = result;
+    }
+  }
+
   private static final AtomicInteger workerNum = new AtomicInteger();
   private static final Logger log = LoggerFactory
       .getLogger(ProcessorThread.class);
+  private static final Metrics.Counter ARTICLES = Metrics.counter(
+    "erudite_articles_total",
+    "Articles taken off the queue, by whether they were processed without "
+        + "error, failed or skipped.",
+    "result");
 
-  private final ConcurrentLinkedQueue<Article> workQueue;
+  private final ArticleQueue workQueue;
   private final Erudite erudite;
   private final Source source;
   private final ImageHandlerFactory ihf;
   private final ImmutableList<Processor> processors;
   private final File workFolder;
+  private final RunReport report;
+  private final Ledger ledger;
+  private final CompletionDispatcher dispatcher;
+  private final WorkerLimit limit;
   private AtomicBoolean anyErrors = new AtomicBoolean(false);
 
   /**
@@ -50,11 +81,22 @@ public class ProcessorThread extends Thread
    *        The list of {@link Processor}s to run each article through.
    * @param work_folder
    *        A temporary folder this thread can use to do all its processing.
+   * @param report
+   *        Where to record the time spent processing each article.
+   * @param ledger
+   *        Where to record the articles delivered and completed, or
+   *        <code>null</code> if not keeping a ledger.
+   * @param dispatcher
+   *        Does the source's on complete and on error actions for the
+   *        articles.
+   * @param limit
+   *        Limits how many of the processor threads work at once.
    */
-  public ProcessorThread( final ConcurrentLinkedQueue<Article> work_queue,
+  public ProcessorThread( final ArticleQueue work_queue,
       final Erudite erudite, final Source source,
       final ImageHandlerFactory ihf, final ImmutableList<Processor> processors,
-      final File work_folder )
+      final File work_folder, final RunReport report, final Ledger ledger,
+      final CompletionDispatcher dispatcher, final WorkerLimit limit )
   {
     super("eruditeworker" + workerNum.incrementAndGet());
     this.workQueue = work_queue;
@@ -63,6 +105,10 @@ public class ProcessorThread extends Thread
     this.ihf = ihf;
     this.processors = processors;
     this.workFolder = work_folder;
+    this.report = report;
+    this.ledger = ledger;
+    this.dispatcher = dispatcher;
+    this.limit = limit;
   }
 
   /**
@@ -77,8 +123,8 @@ public class ProcessorThread extends Thread
   }
 
   /**
-   * Runs in a loop, taking articles off the queue until the queue is empty,
-   * then ends.
+   * Runs in a loop, taking articles off the queue (when the {@link WorkerLimit}
+   * allows) until the queue is empty and closed, then ends.
    */
   @Override
   public void run()
@@ -86,10 +132,35 @@ public class ProcessorThread extends Thread
     log.trace("Processor thread started.");
     try
     {
-      Article article;
-      while ( (article = workQueue.poll()) != null )
-        if ( !process(article) )
-          anyErrors.set(true);
+      while ( true )
+      {
+        limit.acquire();
+        boolean okay = true;
+        long nanos = -1L;
+        try
+        {
+          final Article article = workQueue.take();
+          if ( article == null )
+            break;
+          final long start = System.nanoTime();
+          final Outcome outcome = process(article);
+          okay = outcome != Outcome.FAILED;
+          // Articles that were skipped took next to no time, and would only
+          // throw off the worker limit.
+          if ( outcome != Outcome.SKIPPED )
+            nanos = System.nanoTime() - start;
+          if ( !okay )
+            anyErrors.set(true);
+        }
+        finally
+        {
+          limit.release(okay, nanos);
+        }
+      }
+    }
+    catch ( InterruptedException ex )
+    {
+      log.trace("Processor thread interrupted.");
     }
     finally
     {
@@ -98,66 +169,191 @@ public class ProcessorThread extends Thread
     log.trace("Processor thread finished.");
   }
 
-  private boolean process( final Article article )
+  private String hash( final Article article )
   {
+    // Usually the first time the text is needed, so this is the real fetch.
+    Stage.FETCH.start();
+    try
+    {
+      return Ledger.hash(article);
+    }
+    catch ( Exception ex )
+    {
+      // The processors will hit (and report) the same error.
+      log.debug("Could not get the text of " + article.getTitle(), ex);
+      return null;
+    }
+    finally
+    {
+      Stage.FETCH.end();
+    }
+  }
+
+  private Outcome process( final Article article )
+  {
+    boolean no_errors = true;
+    Outcome outcome = Outcome.FAILED;
+    final Object event = Events.startArticle();
+    report.begin(article);
     try
     {
-      boolean no_errors = true;
       log.info(article.getTitle());
+      ArticleQueue.Duplicate duplicate = ArticleQueue.Duplicate.NONE;
+      String hash = null;
+      Ledger.State state = null;
       try
       {
-        if ( (processors == null) || processors.isEmpty() )
-        {
-          log.error("No processors available for articles.");
-          no_errors = false;
-        }
-        else
+        duplicate = workQueue.duplicateUrl(article);
+        if ( duplicate == ArticleQueue.Duplicate.NONE )
         {
-          for ( final Processor processor : processors )
-            try
-            {
-              Folders.mksClear(workFolder);
-              processor.process(article, erudite, source, ihf, workFolder);
-            }
-            catch ( Exception ex )
-            {
-              log.error("Error while processing " + article.getTitle(), ex);
-              no_errors = false;
-            }
+          if ( (ledger != null) && ledger.has(article) )
+          {
+            hash = hash(article);
+            if ( hash != null )
+              state = ledger.get(article, hash);
+          }
+          if ( (state == null) && workQueue.isDedupContent() )
+          {
+            if ( hash == null )
+              hash = hash(article);
+            duplicate = workQueue.duplicateContent(article, hash);
+          }
         }
       }
       catch ( Exception ex )
       {
+        // Treated like any other failure, so the on error action is done and
+        // any duplicates waiting on it are released.
         log.error("Error while processing " + article.getTitle(), ex);
         no_errors = false;
       }
+      if ( duplicate != ArticleQueue.Duplicate.NONE )
+      {
+        duplicate(article, duplicate);
+        outcome = Outcome.SKIPPED;
+        return outcome;
+      }
 
       if ( no_errors )
         try
         {
-          source.onComplete(article);
+          if ( state != null )
+          {
+            log.debug("Already delivered, so only completing: {}",
+              article.getTitle());
+          }
+          else if ( (processors == null) || processors.isEmpty() )
+          {
+            log.error("No processors available for articles.");
+            no_errors = false;
+          }
+          else
+          {
+            for ( final Processor processor : processors )
+              try
+              {
+                Folders.mksClear(workFolder);
+                processor.process(article, erudite, source, ihf, workFolder);
+              }
+              catch ( Exception ex )
+              {
+                log.error("Error while processing " + article.getTitle(), ex);
+                no_errors = false;
+              }
+          }
         }
-        catch ( IOException ex )
+        catch ( Exception ex )
         {
           log.error("Error while processing " + article.getTitle(), ex);
           no_errors = false;
         }
 
-      if ( !no_errors )
-        try
-        {
-          source.onError(article);
-        }
-        catch ( IOException ex )
-        {
-          log.error("Error while processing " + article.getTitle(), ex);
-        }
+      if ( no_errors && (ledger != null) && (state == null) )
+      {
+        // Text is cached by the article by now, so this is cheap.
+        if ( hash == null )
+          hash = hash(article);
+        if ( hash != null )
+          record(article, hash);
+      }
 
-      return no_errors;
+      // Usually done in the background, so we can get on with the next
+      // article.
+      if ( no_errors )
+        dispatcher.complete(article, hash, state);
+      else
+        dispatcher.error(article);
+      finished(article, no_errors);
+
+      if ( no_errors )
+        outcome = (state != null) ? Outcome.SKIPPED : Outcome.PROCESSED;
+      return outcome;
     }
     finally
     {
+      Events.endArticle(event, article.getTitle(), RunReport.images(),
+        RunReport.imageBytes(), outcome != Outcome.FAILED);
+      if ( outcome == Outcome.SKIPPED )
+        report.skip();
+      else
+        report.end(outcome == Outcome.PROCESSED);
+      ARTICLES.inc(outcome.result);
       Logback.flushLog();
     }
   }
+
+  /**
+   * Deal with a duplicate article, which is never processed itself.
+   */
+  private void duplicate( final Article article,
+      final ArticleQueue.Duplicate duplicate )
+  {
+    switch ( duplicate )
+    {
+      case PENDING:
+        log.debug("Duplicate of an article still being processed, so waiting "
+            + "on it: {}", article.getTitle());
+        break;
+      case DELIVERED:
+        log.debug("Duplicate of an earlier article, so only completing: {}",
+          article.getTitle());
+        dispatcher.complete(article, null, null);
+        finished(article, true);
+        break;
+      default:
+        log.debug("Duplicate of an article that failed: {}",
+          article.getTitle());
+        dispatcher.error(article);
+        finished(article, false);
+        break;
+    }
+  }
+
+  /**
+   * Do the actions for the duplicates that were waiting on an article.
+   */
+  private void finished( final Article article, final boolean delivered )
+  {
+    for ( final Article dup : workQueue.finished(article, delivered) )
+    {
+      log.debug("{} the duplicate: {}", delivered ? "Completing"
+          : "Failing", dup.getTitle());
+      if ( delivered )
+        dispatcher.complete(dup, null, null);
+      else
+        dispatcher.error(dup);
+    }
+  }
+
+  private void record( final Article article, final String hash )
+  {
+    try
+    {
+      ledger.delivered(article, hash);
+    }
+    catch ( IOException ex )
+    {
+      log.warn("Could not update the ledger for " + article.getTitle(), ex);
+    }
+  }
 }
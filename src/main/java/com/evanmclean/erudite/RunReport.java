@@ -0,0 +1,392 @@
+package com.evanmclean.erudite;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.evanmclean.evlib.util.Colls;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * <p>
+ * Collects the time spent in each {@link Stage} for each article processed
+ * during a run, along with some image statistics, and reports on them at the
+ * end of the run as a summary table and/or a JSON file.
+ * </p>
+ *
+ * <p>
+ * Each {@link ProcessorThread} calls {@link #begin(Article)} and
+ * {@link #end(boolean)} around processing an article, and the timings are
+ * recorded against the article via a thread local, so the processors don't
+ * need to pass anything around. The time for an article that isn't in any
+ * stage is reported as &ldquo;Other&rdquo;.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+public class RunReport
+{
+  /**
+   * The timings for a single article. Only ever touched by the thread
+   * processing the article until it is finished.
+   */
+  private static class ArticleTiming
+  {
+    private static final int MAX_DEPTH = 16;
+
+    final String title;
+    final long[] nanos = new long[Stage.values().length];
+    final boolean[] used = new boolean[Stage.values().length];
+    final long started = System.nanoTime();
+    long elapsed;
+    boolean okay;
+    int images;
+    int imageHits;
+    long imageBytes;
+
+    private final Stage[] stack = new Stage[MAX_DEPTH];
+    private final long[] stackStart = new long[MAX_DEPTH];
+    private final long[] stackChildren = new long[MAX_DEPTH];
+    private int depth;
+
+    ArticleTiming( final String title )
+    {
+      this.title = title;
+    }
+
+    void end( final Stage stage )
+    {
+      // Ignore unbalanced calls rather than messing up the other stages.
+      if ( (depth <= 0) || (stack[depth - 1] != stage) )
+        return;
+      --depth;
+      final long total = System.nanoTime() - stackStart[depth];
+      nanos[stage.ordinal()] += total - stackChildren[depth];
+      used[stage.ordinal()] = true;
+      if ( depth > 0 )
+        stackChildren[depth - 1] += total;
+    }
+
+    long other()
+    {
+      long ret = elapsed;
+      for ( final long val : nanos )
+        ret -= val;
+      return Math.max(0L, ret);
+    }
+
+    void start( final Stage stage )
+    {
+      if ( depth >= MAX_DEPTH )
+        return;
+      stack[depth] = stage;
+      stackStart[depth] = System.nanoTime();
+      stackChildren[depth] = 0L;
+      ++depth;
+    }
+  }
+
+  private static final ThreadLocal<ArticleTiming> current = new ThreadLocal<ArticleTiming>();
+
+  /**
+   * Record an image used in the article being processed by the current thread.
+   *
+   * @param bytes
+   *        The size of the image.
+   * @param hit
+   *        True if the image was already in the cache.
+   */
+  static void image( final long bytes, final boolean hit )
+  {
+    final ArticleTiming timing = current.get();
+    if ( timing != null )
+    {
+      ++timing.images;
+      timing.imageBytes += bytes;
+      if ( hit )
+        ++timing.imageHits;
+    }
+  }
+
+  /**
+   * The size of the images recorded so far for the article being processed by
+   * the current thread.
+   *
+   * @return The size of the images in bytes.
+   */
+  static long imageBytes()
+  {
+    final ArticleTiming timing = current.get();
+    return (timing == null) ? 0L : timing.imageBytes;
+  }
+
+  /**
+   * The number of images recorded so far for the article being processed by
+   * the current thread.
+   *
+   * @return The number of images.
+   */
+  static int images()
+  {
+    final ArticleTiming timing = current.get();
+    return (timing == null) ? 0 : timing.images;
+  }
+
+  static void end( final Stage stage )
+  {
+    final ArticleTiming timing = current.get();
+    if ( timing != null )
+      timing.end(stage);
+  }
+
+  static void start( final Stage stage )
+  {
+    final ArticleTiming timing = current.get();
+    if ( timing != null )
+      timing.start(stage);
+  }
+
+  private static double millis( final long nanos )
+  {
+    return nanos / 1000000.0;
+  }
+
+  private final long started = System.currentTimeMillis();
+  private final long startedNanos = System.nanoTime();
+  private final ConcurrentLinkedQueue<ArticleTiming> articles = new ConcurrentLinkedQueue<ArticleTiming>();
+  private long elapsed = -1L;
+  private int actions;
+  private long actionNanos;
+  private int failedActions;
+  private final AtomicInteger skipped = new AtomicInteger();
+
+  /**
+   * Record the source's on complete and on error actions, which are done in
+   * the background rather than as a stage of each article (see
+   * {@link CompletionDispatcher}.)
+   *
+   * @param count
+   *        The number of actions done.
+   * @param nanos
+   *        The total time taken by the actions.
+   * @param failed
+   *        The number of articles for which an action failed.
+   */
+  public void actions( final int count, final long nanos, final int failed )
+  {
+    actions = count;
+    actionNanos = nanos;
+    failedActions = failed;
+  }
+
+  /**
+   * Mark the end of the run. Called once all the articles have been
+   * processed.
+   */
+  public void finish()
+  {
+    elapsed = System.nanoTime() - startedNanos;
+  }
+
+  /**
+   * The number of articles processed without error (not counting those that
+   * were skipped.)
+   *
+   * @return The number of articles delivered.
+   */
+  public int getDelivered()
+  {
+    int ret = 0;
+    for ( final ArticleTiming timing : articles )
+      if ( timing.okay )
+        ++ret;
+    return ret;
+  }
+
+  /**
+   * A table summarising the time spent in each stage, suitable for logging.
+   *
+   * @return The lines of the table.
+   */
+  public ImmutableList<String> summary()
+  {
+    final ImmutableList<ArticleTiming> list = ImmutableList.copyOf(articles);
+    final ImmutableList.Builder<String> bldr = ImmutableList.builder();
+
+    long total = 0L;
+    int errors = 0;
+    int images = 0;
+    int image_hits = 0;
+    long image_bytes = 0L;
+    for ( final ArticleTiming timing : list )
+    {
+      total += timing.elapsed;
+      if ( !timing.okay )
+        ++errors;
+      images += timing.images;
+      image_hits += timing.imageHits;
+      image_bytes += timing.imageBytes;
+    }
+
+    bldr.add(String.format("%-20s %6s %9s %9s %9s %6s", "Stage", "Count",
+      "Total s", "Mean ms", "Max ms", "%"));
+    for ( final Stage stage : Stage.values() )
+    {
+      final long[] vals = values(list, stage);
+      if ( vals.length > 0 )
+        bldr.add(row(stage.getDescription(), vals, total));
+    }
+    bldr.add(row("Other", values(list, null), total));
+    {
+      final long[] vals = new long[list.size()];
+      for ( int xi = 0; xi < vals.length; ++xi )
+        vals[xi] = list.get(xi).elapsed;
+      bldr.add(row("Total", vals, total));
+    }
+
+    bldr.add(String.format("Images: %d (%.1f MB, %d cache hits)", images,
+      image_bytes / (1024.0 * 1024.0), image_hits));
+    final double secs = getElapsed() / 1e9;
+    bldr.add(String.format(
+      "Articles: %d (%d errors, %d skipped) in %.1fs, %.2f per second",
+      list.size(), errors, skipped.get(), secs,
+      (secs > 0.0) ? (list.size() / secs) : 0.0));
+    if ( actions > 0 )
+      bldr.add(String.format(
+        "Source actions: %d, %.1f ms mean (%d articles failed)", actions,
+        millis(actionNanos / actions), failedActions));
+    return bldr.build();
+  }
+
+  /**
+   * Write the report as JSON.
+   *
+   * @param file
+   *        The file to write to.
+   * @throws IOException
+   */
+  public void write( final File file ) throws IOException
+  {
+    final Map<String, Object> report = Colls.newLinkedHashMap();
+    report.put("started", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ")
+        .format(new Date(started)));
+    report.put("elapsed_ms", Double.valueOf(millis(getElapsed())));
+    report.put("actions", Integer.valueOf(actions));
+    report.put("actions_ms", Double.valueOf(millis(actionNanos)));
+    report.put("failed_actions", Integer.valueOf(failedActions));
+    report.put("skipped", Integer.valueOf(skipped.get()));
+
+    final ImmutableList<ArticleTiming> list = ImmutableList.copyOf(articles);
+    final List<Map<String, Object>> arts = Colls.newArrayList(list.size());
+    for ( final ArticleTiming timing : list )
+    {
+      final Map<String, Object> art = Colls.newLinkedHashMap();
+      art.put("title", timing.title);
+      art.put("okay", Boolean.valueOf(timing.okay));
+      art.put("elapsed_ms", Double.valueOf(millis(timing.elapsed)));
+      final Map<String, Object> stages = Colls.newLinkedHashMap();
+      for ( final Stage stage : Stage.values() )
+        if ( timing.used[stage.ordinal()] )
+          stages.put(stage.getKey(),
+            Double.valueOf(millis(timing.nanos[stage.ordinal()])));
+      stages.put("other", Double.valueOf(millis(timing.other())));
+      art.put("stages_ms", stages);
+      art.put("images", Integer.valueOf(timing.images));
+      art.put("image_bytes", Long.valueOf(timing.imageBytes));
+      art.put("image_cache_hits", Integer.valueOf(timing.imageHits));
+      arts.add(art);
+    }
+    report.put("articles", arts);
+
+    new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(
+      file, report);
+  }
+
+  /**
+   * Start timing an article on the current thread.
+   *
+   * @param article
+   *        The article about to be processed.
+   */
+  void begin( final Article article )
+  {
+    current.set(new ArticleTiming(article.getTitle()));
+  }
+
+  /**
+   * Finish timing the article on the current thread.
+   *
+   * @param okay
+   *        True if the article was processed without error.
+   */
+  void end( final boolean okay )
+  {
+    final ArticleTiming timing = current.get();
+    if ( timing == null )
+      return;
+    current.remove();
+    timing.elapsed = System.nanoTime() - timing.started;
+    timing.okay = okay;
+    articles.add(timing);
+  }
+
+  /**
+   * Stop timing the article on the current thread without recording it, as it
+   * was skipped (a duplicate, or already delivered according to the ledger.)
+   * Only the number of skipped articles is reported.
+   */
+  void skip()
+  {
+    current.remove();
+    skipped.incrementAndGet();
+  }
+
+  private long getElapsed()
+  {
+    return (elapsed >= 0L) ? elapsed : (System.nanoTime() - startedNanos);
+  }
+
+  private String row( final String name, final long[] vals, final long total )
+  {
+    long sum = 0L;
+    long max = 0L;
+    for ( final long val : vals )
+    {
+      sum += val;
+      max = Math.max(max, val);
+    }
+    return String.format("%-20s %6d %9.2f %9.1f %9.1f %6.1f", name,
+      vals.length, sum / 1e9, (vals.length > 0) ? millis(sum / vals.length)
+          : 0.0, millis(max), (total > 0L) ? ((sum * 100.0) / total) : 0.0);
+  }
+
+  /**
+   * The times for a stage for each article that went through it.
+   *
+   * @param list
+   * @param stage
+   *        The stage, or <code>null</code> for the time not in any stage.
+   * @return The times in nanoseconds.
+   */
+  private long[] values( final List<ArticleTiming> list, final Stage stage )
+  {
+    final long[] ret = new long[list.size()];
+    int len = 0;
+    for ( final ArticleTiming timing : list )
+      if ( stage == null )
+        ret[len++] = timing.other();
+      else if ( timing.used[stage.ordinal()] )
+        ret[len++] = timing.nanos[stage.ordinal()];
+    return Arrays.copyOf(ret, len);
+  }
+}
@@ -0,0 +1,103 @@
+package com.evanmclean.erudite;
+
+/**
+ * <p>
+ * The stages an article goes through while being processed, for timing in the
+ * {@link RunReport}. The source's on complete and on error actions are not
+ * stages, as they are done in the background after the article has been
+ * processed (see {@link CompletionDispatcher}.)
+ * </p>
+ *
+ * <p>
+ * Wrap the work for a stage in {@link #start()} and {@link #end()} (using a
+ * <code>try</code>/<code>finally</code> block.) The time is recorded against
+ * the article being processed by the current thread, if any. Stages can be
+ * nested, in which case the time spent in the inner stage is not counted
+ * against the outer stage.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+public enum Stage
+{
+  /**
+   * Retrieving the text of the article from the source.
+   */
+  FETCH("fetch", "Article fetch"),
+  /**
+   * Looking up the Hacker News discussion threads.
+   */
+  HNSEARCH("hnsearch", "HN lookup"),
+  /**
+   * Producing the HTML document from the template.
+   */
+  RENDER("render", "Template render"),
+  /**
+   * Retrieving and saving images.
+   */
+  IMAGES("images", "Image fetch"),
+  /**
+   * Writing out the HTML document.
+   */
+  WRITE("write", "HTML write"),
+  /**
+   * Running <code>ebook-convert</code>.
+   */
+  CONVERT("convert", "ebook-convert"),
+  /**
+   * Running <code>calibredb add</code>.
+   */
+  CALIBRE("calibredb", "calibredb add"),
+  /**
+   * Delivering the document to where it is going (apart from any
+   * <code>calibredb add</code>.)
+   */
+  THEN("then", "Then delivery");
+
+  private final String key;
+  private final String description;
+
+  private Stage( final String key, final String description )
+  {
+    this.key = key;
+    this.description = description;
+  }
+
+  /**
+   * End timing this stage.
+   */
+  public void end()
+  {
+    RunReport.end(this);
+  }
+
+  /**
+   * A description of the stage, for display.
+   *
+   * @return A description of the stage.
+   */
+  public String getDescription()
+  {
+    return description;
+  }
+
+  /**
+   * The key used for the stage in the JSON report.
+   *
+   * @return The key.
+   */
+  public String getKey()
+  {
+    return key;
+  }
+
+  /**
+   * Start timing this stage.
+   */
+  public void start()
+  {
+    RunReport.start(this);
+  }
+}
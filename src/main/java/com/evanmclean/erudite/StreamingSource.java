@@ -0,0 +1,25 @@
+package com.evanmclean.erudite;
+
+import java.io.IOException;
+
+/**
+ * A source that can hand over articles as it finds them (e.g., a page at a
+ * time), rather than all at once from {@link #getArticles()}, so processing
+ * can start before the source has finished listing them.
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+public interface StreamingSource extends Source
+{
+  /**
+   * Add the articles to process to the queue as they are found, along with
+   * any non-fatal errors. Does not close the queue.
+   *
+   * @param queue
+   *        The queue to add the articles to.
+   * @throws IOException
+   */
+  void getArticles( ArticleQueue queue ) throws IOException;
+}
@@ -0,0 +1,175 @@
+package com.evanmclean.erudite;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.evanmclean.erudite.misc.Metrics;
+import com.google.common.base.Supplier;
+
+/**
+ * <p>
+ * Limits how many {@link ProcessorThread}s are working on an article at once,
+ * adjusting the limit as it goes to find the most that can usefully run on
+ * this machine right now. Thread safe.
+ * </p>
+ *
+ * <p>
+ * The limit is adjusted after each &ldquo;round&rdquo; of articles (as many
+ * articles as the limit.) If the articles in the round took about as long as
+ * the fastest round so far, the work is not yet contending for anything
+ * (e.g., it is waiting on the network), so the limit goes up by one. If they
+ * took a lot longer (e.g., several <code>ebook-convert</code>s are fighting
+ * over the CPU) or more than a quarter of them failed, the limit is cut
+ * back by a quarter.
+ * Otherwise the limit is left alone. The limit always stays between the
+ * minimum and maximum given.
+ * </p>
+ *
+ * <p>
+ * A fixed limit (where the minimum and maximum are the same) costs next to
+ * nothing, so the processor threads always go through one of these.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+public class WorkerLimit
+{
+  /**
+   * A round taking up to this much longer than the fastest is good enough to
+   * add another worker.
+   */
+  private static final double GROW_RATIO = 1.25;
+  /**
+   * A round taking more than this much longer than the fastest means we have
+   * too many workers.
+   */
+  private static final double SHRINK_RATIO = 2.0;
+  /**
+   * How much the fastest round time is allowed to drift up each round, so an
+   * unusually fast round early on doesn't hold the limit down forever.
+   */
+  private static final double BEST_DRIFT = 1.02;
+
+  /**
+   * The limit being used by the current run (there is only one at a time),
+   * for the gauge.
+   */
+  private static volatile WorkerLimit current;
+
+  static
+  {
+    // Registered once, rather than for each run when watching.
+    Metrics.gauge("erudite_worker_limit",
+      "The number of worker threads allowed to process articles at once.",
+      new Supplier<Integer>() {
+        @Override
+        public Integer get()
+        {
+          final WorkerLimit limit = current;
+          return Integer.valueOf((limit == null) ? 0 : limit.getLimit());
+        }
+      });
+  }
+
+  private final Logger log = LoggerFactory.getLogger(WorkerLimit.class);
+  private final int min;
+  private final int max;
+  private int limit;
+  private int active;
+  private int roundArticles;
+  private int roundErrors;
+  private long roundNanos;
+  private double best = -1.0;
+
+  /**
+   * Create a limit.
+   *
+   * @param initial
+   *        The number of workers to start with.
+   * @param min
+   *        The fewest workers to cut back to.
+   * @param max
+   *        The most workers to grow to. No more than this many processor
+   *        threads need to be started.
+   */
+  public WorkerLimit( final int initial, final int min, final int max )
+  {
+    this.max = Math.max(1, max);
+    this.min = Math.max(1, Math.min(min, this.max));
+    this.limit = Math.max(this.min, Math.min(initial, this.max));
+    current = this;
+  }
+
+  /**
+   * Wait until this thread is allowed to work on an article. Must be followed
+   * by {@link #release(boolean, long)} (in a <code>finally</code> block.)
+   *
+   * @throws InterruptedException
+   */
+  public synchronized void acquire() throws InterruptedException
+  {
+    while ( active >= limit )
+      wait();
+    ++active;
+  }
+
+  /**
+   * The current limit.
+   *
+   * @return The number of workers allowed to work at once.
+   */
+  public synchronized int getLimit()
+  {
+    return limit;
+  }
+
+  /**
+   * Finished working on an article.
+   *
+   * @param okay
+   *        True if the article was processed without error.
+   * @param nanos
+   *        How long the article took, or a negative number if no article was
+   *        processed after all.
+   */
+  public synchronized void release( final boolean okay, final long nanos )
+  {
+    --active;
+    notifyAll();
+    if ( (nanos < 0L) || (min >= max) )
+      return;
+
+    ++roundArticles;
+    roundNanos += nanos;
+    if ( !okay )
+      ++roundErrors;
+    if ( roundArticles < limit )
+      return;
+
+    final double mean = roundNanos / (double) roundArticles;
+    final int old_limit = limit;
+    if ( best <= 0.0 )
+      best = mean;
+    else
+      best = Math.min(mean, best * BEST_DRIFT);
+
+    if ( ((roundErrors * 4) > roundArticles) || (mean > (best * SHRINK_RATIO)) )
+      limit = Math.max(min, (limit * 3) / 4);
+    else if ( mean <= (best * GROW_RATIO) )
+      limit = Math.min(max, limit + 1);
+
+    if ( limit != old_limit )
+      log.debug("Worker limit {} -> {} (round mean {}ms, best {}ms, "
+          + "{} errors)", String.valueOf(old_limit), String.valueOf(limit),
+        String.valueOf(TimeUnit.NANOSECONDS.toMillis((long) mean)),
+        String.valueOf(TimeUnit.NANOSECONDS.toMillis((long) best)),
+        String.valueOf(roundErrors));
+    roundArticles = 0;
+    roundErrors = 0;
+    roundNanos = 0L;
+  }
+}
@@ -2,6 +2,7 @@ package com.evanmclean.erudite.calibre;
 
 import java.io.File;
 
+import com.evanmclean.erudite.misc.Metrics;
 import com.evanmclean.erudite.misc.Utils;
 import com.evanmclean.evlib.io.Files;
 
@@ -13,6 +14,16 @@ import com.evanmclean.evlib.io.Files;
  */
 final class CalCommon
 {
+  static final Metrics.Counter RUNS = Metrics.counter(
+    "erudite_calibre_runs_total",
+    "Calibre commands run, by program and whether they succeeded.", "program",
+    "result");
+  static final Metrics.Timer RUN_TIME = Metrics.timer("erudite_calibre_run",
+    "Time taken running Calibre commands, by program.", "program");
+  static final Metrics.Gauge RUNNING = Metrics.gauge(
+    "erudite_calibre_running", "Calibre commands currently running, by program.",
+    "program");
+
   static String findExe( final String exename )
   {
     File exe = Utils.findOnPath(exename);
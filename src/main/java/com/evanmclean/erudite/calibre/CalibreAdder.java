@@ -7,6 +7,8 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.evanmclean.erudite.Stage;
+import com.evanmclean.erudite.jfr.Events;
 import com.evanmclean.erudite.misc.ProcessOutputSlurper;
 import com.evanmclean.erudite.misc.Utils;
 import com.evanmclean.evlib.exceptions.UnhandledException;
@@ -25,6 +27,7 @@ import com.google.common.collect.ImmutableList;
 public class CalibreAdder
 {
   private static final Logger log = LoggerFactory.getLogger(CalibreAdder.class);
+  private static final String PROGRAM = "calibredb";
 
   /**
    * Will find the <code>calibredb</code> executable by searching the operating
@@ -154,23 +157,38 @@ public class CalibreAdder
     cmd.add(file.toString());
 
     log.debug("Running: {}", Str.join(", ", cmd));
-    final Process proc = new ProcessBuilder(cmd).redirectErrorStream(true)
-        .start();
-
-    final ProcessOutputSlurper slurper = new ProcessOutputSlurper(proc);
-
-    final int ret;
+    int ret = -1;
+    final List<String> output;
+    Stage.CALIBRE.start();
+    CalCommon.RUNNING.inc(PROGRAM);
+    final Object event = Events.startSubprocess();
+    final long start = System.nanoTime();
     try
     {
-      ret = proc.waitFor();
+      final Process proc = new ProcessBuilder(cmd).redirectErrorStream(true)
+          .start();
+
+      final ProcessOutputSlurper slurper = new ProcessOutputSlurper(proc);
+
+      try
+      {
+        ret = proc.waitFor();
+      }
+      catch ( InterruptedException ex )
+      {
+        throw new UnhandledException(ex);
+      }
+
+      output = slurper.getLines();
     }
-    catch ( InterruptedException ex )
+    finally
     {
-      throw new UnhandledException(ex);
+      CalCommon.RUN_TIME.since(start, PROGRAM);
+      CalCommon.RUNNING.dec(PROGRAM);
+      Events.endSubprocess(event, exePath, ret);
+      Stage.CALIBRE.end();
     }
 
-    final List<String> output = slurper.getLines();
-
     if ( ret != 0 )
       log.trace("calibredb add returned {}", ret);
 
@@ -187,6 +205,7 @@ public class CalibreAdder
           break;
         }
 
+    CalCommon.RUNS.inc(PROGRAM, okay ? "ok" : "failed");
     if ( !okay )
       throw new IOException("Error adding file " + file.toString()
           + " to Calibre library. See log file for details.");
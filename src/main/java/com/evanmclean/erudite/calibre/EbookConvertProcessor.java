@@ -11,6 +11,7 @@ import com.evanmclean.erudite.HNSearch;
 import com.evanmclean.erudite.ImageHandlerFactory;
 import com.evanmclean.erudite.Processor;
 import com.evanmclean.erudite.Source;
+import com.evanmclean.erudite.Stage;
 import com.evanmclean.erudite.Template;
 import com.evanmclean.erudite.TemplateFactory;
 import com.evanmclean.erudite.config.Config;
@@ -119,7 +120,15 @@ public class EbookConvertProcessor implements Processor
       final File pub_file = convert(source, article, html_file, work_folder);
 
       // Then...
-      then.then(reservation, pub_file, null);
+      Stage.THEN.start();
+      try
+      {
+        then.then(reservation, pub_file, null);
+      }
+      finally
+      {
+        Stage.THEN.end();
+      }
 
       okay = true;
     }
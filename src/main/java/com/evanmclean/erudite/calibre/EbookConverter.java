@@ -8,6 +8,8 @@ import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.evanmclean.erudite.Stage;
+import com.evanmclean.erudite.jfr.Events;
 import com.evanmclean.erudite.misc.ProcessOutputSlurper;
 import com.evanmclean.erudite.misc.Utils;
 import com.evanmclean.evlib.exceptions.UnhandledException;
@@ -28,6 +30,7 @@ public class EbookConverter
 {
   private static final Logger log = LoggerFactory
       .getLogger(EbookConverter.class);
+  private static final String PROGRAM = "ebook-convert";
 
   /**
    * Will find the <code>ebook-convert</code> executable by searching the
@@ -181,23 +184,38 @@ public class EbookConverter
     cmd.addAll(options);
 
     log.debug("Running: {}", Str.join(", ", cmd));
-    final Process proc = new ProcessBuilder(cmd).redirectErrorStream(true)
-        .start();
-
-    final ProcessOutputSlurper slurper = new ProcessOutputSlurper(proc);
-
-    final int ret;
+    int ret = -1;
+    final List<String> output;
+    Stage.CONVERT.start();
+    CalCommon.RUNNING.inc(PROGRAM);
+    final Object event = Events.startSubprocess();
+    final long start = System.nanoTime();
     try
     {
-      ret = proc.waitFor();
+      final Process proc = new ProcessBuilder(cmd).redirectErrorStream(true)
+          .start();
+
+      final ProcessOutputSlurper slurper = new ProcessOutputSlurper(proc);
+
+      try
+      {
+        ret = proc.waitFor();
+      }
+      catch ( InterruptedException ex )
+      {
+        throw new UnhandledException(ex);
+      }
+
+      output = slurper.getLines();
     }
-    catch ( InterruptedException ex )
+    finally
     {
-      throw new UnhandledException(ex);
+      CalCommon.RUN_TIME.since(start, PROGRAM);
+      CalCommon.RUNNING.dec(PROGRAM);
+      Events.endSubprocess(event, exePath, ret);
+      Stage.CONVERT.end();
     }
 
-    final List<String> output = slurper.getLines();
-
     if ( ret != 0 )
       log.trace("ebook-convert returned {}", ret);
 
@@ -210,9 +228,13 @@ public class EbookConverter
       final Pattern pat = Pattern.compile("\\S+ output written to .+$");
       for ( String line : output )
         if ( pat.matcher(line).matches() )
+        {
+          CalCommon.RUNS.inc(PROGRAM, "ok");
           return;
+        }
     }
 
+    CalCommon.RUNS.inc(PROGRAM, "failed");
     throw new IOException(
         "Error converting document. See log file for details.");
   }
@@ -24,6 +24,11 @@ public enum Action
    * Process any available articles from the source.
    */
   PROCESS(true),
+  /**
+   * Keep processing articles from the source as they become available, until
+   * stopped.
+   */
+  WATCH(true),
   /**
    * List any available articles from the source.
    */
@@ -134,6 +134,19 @@ public class Args
 
     System.out.println();
 
+    System.out.println(
+      "Keep processing articles from a session as they arrive, until stopped.");
+    System.out.println(
+      "Checks every watch.interval seconds, backing off to watch.interval.max");
+    System.out.println("when there is nothing new.");
+    System.out.println();
+
+    new HelpFormatter().printHelp(
+      "watch [-v | -q | -S] [-c <file>] [-s <file>]",
+      assembleProcessOptions());
+
+    System.out.println();
+
     System.out.println("List articles to be processed from a session.");
     System.out.println();
 
@@ -343,6 +356,7 @@ public class Args
           break;
 
         case PROCESS:
+        case WATCH:
         {
           final CommandLine args = new DefaultParser()
               .parse(assembleProcessOptions(), tail(cmdline));
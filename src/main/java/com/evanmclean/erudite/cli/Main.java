@@ -7,32 +7,42 @@ import java.io.IOException;
 import java.net.URI;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.evanmclean.erudite.Article;
+import com.evanmclean.erudite.ArticleQueue;
 import com.evanmclean.erudite.Articles;
+import com.evanmclean.erudite.CompletionDispatcher;
 import com.evanmclean.erudite.Erudite;
 import com.evanmclean.erudite.ImageHandlerFactory;
+import com.evanmclean.erudite.Ledger;
 import com.evanmclean.erudite.Processor;
 import com.evanmclean.erudite.ProcessorThread;
+import com.evanmclean.erudite.RunReport;
 import com.evanmclean.erudite.Source;
+import com.evanmclean.erudite.StreamingSource;
 import com.evanmclean.erudite.TemplateFactory;
+import com.evanmclean.erudite.WorkerLimit;
 import com.evanmclean.erudite.config.Config;
 import com.evanmclean.erudite.config.ConfigReader;
 import com.evanmclean.erudite.config.ProcessorsFactory;
 import com.evanmclean.erudite.instapaper.Instapaper;
 import com.evanmclean.erudite.logback.ConsoleLogging;
 import com.evanmclean.erudite.logback.Logback;
+import com.evanmclean.erudite.misc.Conn;
+import com.evanmclean.erudite.misc.Metrics;
 import com.evanmclean.erudite.pocket.Pocket;
 import com.evanmclean.erudite.sessions.Session;
 import com.evanmclean.erudite.sessions.SessionIO;
 import com.evanmclean.erudite.sessions.SourceType;
 import com.evanmclean.evlib.io.Folders;
 import com.evanmclean.evlib.lang.Str;
+import com.evanmclean.evlib.util.Colls;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.Files;
 
@@ -45,7 +55,158 @@ import com.google.common.io.Files;
  */
 public class Main
 {
+  /**
+   * Everything needed to process articles that is worth keeping between runs
+   * when watching: the configuration, the processors (with their parsed
+   * templates and Calibre executables), the image cache and the ledger of
+   * delivered articles (if there is one.) The processors and image cache are
+   * only created once there are articles to process, so a run with nothing to
+   * do starts (and finishes) quickly.
+   */
+  private static class Warm
+  {
+    final Session session;
+    final Config config;
+    final Erudite erudite = new Erudite();
+    final int minThreads;
+    final int maxThreads;
+    /** The number of workers to start the next run with. */
+    int threads;
+    /** The number of articles the last run delivered. */
+    int delivered;
+    /**
+     * The URLs of the articles delivered so far (see {@link ArticleQueue}),
+     * so when watching, articles left in place by the source's on complete
+     * action aren't delivered again every time they are found.
+     */
+    final Set<String> deliveredUrls = Colls.newHashSet();
+    private final TemplateFactory tf;
+    private ImmutableList<Processor> processors;
+    private ImageHandlerFactory ihf;
+    private Ledger ledger;
+    private boolean ledgerOpened;
+
+    Warm( final Session session, final Config config, final TemplateFactory tf )
+    {
+      this.session = session;
+      this.config = config;
+      this.tf = tf;
+      this.threads = Math.max(1, Math.min(config.getInt("worker.threads", 1),
+        MAX_THREADS));
+      if ( config.getBoolean("worker.adaptive", false) )
+      {
+        this.minThreads = Math.max(1, Math.min(config.getInt(
+          "worker.threads.min", 1), threads));
+        this.maxThreads = Math.max(threads, Math.min(config.getInt(
+          "worker.threads.max", Runtime.getRuntime().availableProcessors() * 2),
+          MAX_THREADS));
+      }
+      else
+      {
+        this.minThreads = threads;
+        this.maxThreads = threads;
+      }
+      Conn.configure(config);
+      Logback.setFileLevel(config.getString("log.file.level", "debug"));
+    }
+
+    void close()
+    {
+      if ( ihf != null )
+        ihf.clearCache();
+      if ( ledger != null )
+        try
+        {
+          ledger.close();
+        }
+        catch ( IOException ex )
+        {
+          LoggerFactory.getLogger(Main.class).warn("", ex);
+        }
+    }
+
+    ImageHandlerFactory getImageHandlerFactory()
+    {
+      if ( ihf == null )
+        ihf = ImageHandlerFactory.create(maxThreads, config);
+      return ihf;
+    }
+
+    Ledger getLedger() throws IOException
+    {
+      if ( !ledgerOpened )
+      {
+        final String ledger_file = config.getString("ledger.file");
+        if ( Str.isNotEmpty(ledger_file) )
+          ledger = new Ledger(new File(ledger_file),
+            config.getInt("ledger.days", 90),
+            config.getBoolean("ledger.content", true));
+        ledgerOpened = true;
+      }
+      return ledger;
+    }
+
+    ImmutableList<Processor> getProcessors()
+    {
+      if ( processors == null )
+        processors = ProcessorsFactory.get(config, tf);
+      return processors;
+    }
+  }
+
+  /**
+   * Reads the articles from the source into the queue, and closes the queue
+   * when done. Run as a thread for a {@link StreamingSource}, so processing
+   * can start as soon as the first articles have been read.
+   */
+  private static class Lister extends Thread
+  {
+    private final Source source;
+    private final ArticleQueue queue;
+    volatile Exception failure;
+
+    Lister( final Source source, final ArticleQueue queue )
+    {
+      super("eruditelister");
+      this.source = source;
+      this.queue = queue;
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        if ( source instanceof StreamingSource )
+        {
+          ((StreamingSource) source).getArticles(queue);
+        }
+        else
+        {
+          final Articles arts = source.getArticles();
+          for ( final String errmsg : arts.getErrors() )
+            queue.addError(errmsg);
+          queue.addAll(arts.getArticles());
+        }
+      }
+      catch ( IOException ex )
+      {
+        failure = ex;
+      }
+      catch ( RuntimeException ex )
+      {
+        failure = ex;
+      }
+      finally
+      {
+        queue.close();
+      }
+    }
+  }
+
   private static final int NO_EXIT = Integer.MIN_VALUE + 5;
+  private static final int MIN_WATCH_INTERVAL = 10;
+  private static final int MAX_THREADS = 20;
 
   public static void main( final String[] args )
   {
@@ -98,6 +259,10 @@ public class Main
         return process(args.getSessionFile(), args.getConfigFile(),
           new TemplateFactory(args.getTemplate()),
           ConsoleLogging.QUIET.equals(args.getConsoleLogging()));
+      case WATCH:
+        return watch(args.getSessionFile(), args.getConfigFile(),
+          new TemplateFactory(args.getTemplate()),
+          ConsoleLogging.QUIET.equals(args.getConsoleLogging()));
       case LIST:
         return list(args.getSessionFile(), args.getConfigFile());
       case TITLETEST:
@@ -274,87 +439,185 @@ public class Main
     return ret;
   }
 
-  private static int process( final File session_file, final File config_file,
+  static int process( final File session_file, final File config_file,
       final TemplateFactory tf, final boolean quiet )
     throws IOException,
       ClassNotFoundException,
       ConfigurationException
+  {
+    final Warm warm = new Warm(SessionIO.read(session_file),
+        ConfigReader.read(config_file), tf);
+    serveMetrics(warm.config);
+    try
+    {
+      return processArticles(warm, quiet);
+    }
+    finally
+    {
+      warm.close();
+    }
+  }
+
+  private static int processArticles( final Warm warm, final boolean quiet )
+    throws IOException
   {
     final Logger log = LoggerFactory.getLogger(Main.class);
-    final Session session = SessionIO.read(session_file);
-    final Config config = ConfigReader.read(config_file);
-    final Source source = session.getSource(config);
-    final ImmutableList<Processor> processors = ProcessorsFactory.get(config,
-      tf);
+    final Config config = warm.config;
+    // A new source each time, as the sources remember the articles they have
+    // read.
+    final Source source = warm.session.getSource(config);
 
     int ret = 0;
+    warm.delivered = 0;
     final File tmp_folder = Folders.createTempFolder("erudite", ".tmp");
     try
     {
-      log.trace("Reading articles from {}", session.getSourceType());
-      final Articles arts = source.getArticles();
-      for ( final String errmsg : arts.getErrors() )
-      {
-        log.error(errmsg);
-        ret = 1;
-      }
-      final ConcurrentLinkedQueue<Article> articles = new ConcurrentLinkedQueue<Article>(
-          arts.getArticles());
-      final int numarticles = articles.size();
-      if ( numarticles <= 0 )
-      {
-        if ( quiet || (!arts.getErrors().isEmpty()) )
-          log.debug("No articles to be processed.");
-        else
-          log.info("No articles to be processed.");
-      }
+      log.trace("Reading articles from {}", warm.session.getSourceType());
+      final ArticleQueue articles = new ArticleQueue(
+          config.getBoolean("dedup", true),
+          config.getBoolean("dedup.content", false), warm.deliveredUrls);
+      final Lister lister = new Lister(source, articles);
+      // A streaming source is read while the articles are being processed,
+      // otherwise we have them all before starting.
+      if ( source instanceof StreamingSource )
+        lister.start();
       else
-      {
-        if ( numarticles == 1 )
-          log.trace("There is 1 article to be processed.");
-        else
-          log.trace("There is {} articles to be processed.", numarticles);
+        lister.run();
 
-        try
+      try
+      {
+        if ( articles.awaitArticles() )
         {
-          final Erudite erudite = new Erudite();
-          final ProcessorThread[] thrds = new ProcessorThread[Math.min(
-            numarticles,
-            Math.max(1, Math.min(config.getInt("worker.threads", 1), 20)))];
-          final ImageHandlerFactory ihf = ImageHandlerFactory
-              .create(thrds.length, config);
+          final ProcessorThread[] thrds = new ProcessorThread[lister.isAlive()
+              ? warm.maxThreads : Math.min(articles.getAdded(),
+                warm.maxThreads)];
+          final WorkerLimit limit = new WorkerLimit(warm.threads,
+              warm.minThreads, thrds.length);
+          final ImmutableList<Processor> processors = warm.getProcessors();
+          final ImageHandlerFactory ihf = warm.getImageHandlerFactory();
+          final RunReport report = new RunReport();
+          final Ledger ledger = warm.getLedger();
+          final CompletionDispatcher dispatcher = new CompletionDispatcher(
+              source, ledger, articles, config.getInt(
+                "source.actions.threads", 2));
 
           for ( int xi = 0; xi < thrds.length; ++xi )
-            thrds[xi] = new ProcessorThread(articles, erudite, source, ihf,
-                processors, new File(tmp_folder, "worker" + xi));
-
-          for ( final ProcessorThread thrd : thrds )
-            thrd.start();
+            thrds[xi] = new ProcessorThread(articles, warm.erudite, source,
+                ihf, processors, new File(tmp_folder, "worker" + xi), report,
+                ledger, dispatcher, limit);
 
-          log.trace("Waiting on processing threads.");
-          for ( final ProcessorThread thrd : thrds )
+          try
           {
-            thrd.join();
-            if ( thrd.anyErrors() )
+            for ( final ProcessorThread thrd : thrds )
+              thrd.start();
+
+            log.trace("Waiting on processing threads.");
+            for ( final ProcessorThread thrd : thrds )
+            {
+              thrd.join();
+              if ( thrd.anyErrors() )
+                ret = 1;
+            }
+            log.trace("All processing threads complete.");
+            // Carry on from here next time when watching.
+            if ( thrds.length >= warm.maxThreads )
+              warm.threads = limit.getLimit();
+          }
+          finally
+          {
+            log.trace("Waiting on source actions.");
+            final int failed = dispatcher.finish();
+            if ( failed > 0 )
               ret = 1;
+            report.actions(dispatcher.getActions(),
+              dispatcher.getActionNanos(), failed);
+          }
+
+          report.finish();
+          warm.delivered = report.getDelivered();
+          for ( final String line : report.summary() )
+            if ( quiet )
+              log.debug(line);
+            else
+              log.info(line);
+          final String report_file = config.getString("report.file");
+          if ( Str.isNotEmpty(report_file) )
+          {
+            log.trace("Writing run report to {}", report_file);
+            report.write(new File(report_file));
           }
-          log.trace("All processing threads complete.");
         }
-        catch ( Exception ex )
+      }
+      catch ( Exception ex )
+      {
+        log.error("", ex);
+        ret = 1;
+      }
+      finally
+      {
+        // Stop reading if processing failed.
+        articles.close();
+        try
+        {
+          lister.join();
+        }
+        catch ( InterruptedException ex )
         {
-          log.error("", ex);
-          ret = 1;
+          Thread.currentThread().interrupt();
         }
       }
+
+      final ImmutableList<String> errors = articles.getErrors();
+      for ( final String errmsg : errors )
+      {
+        log.error(errmsg);
+        ret = 1;
+      }
+      final int found = articles.getAdded();
+      if ( found <= 0 )
+      {
+        if ( quiet || (!errors.isEmpty()) || (lister.failure != null) )
+          log.debug("No articles to be processed.");
+        else
+          log.info("No articles to be processed.");
+      }
+      else if ( found == 1 )
+      {
+        log.trace("There was 1 article to be processed.");
+      }
+      else
+      {
+        log.trace("There were {} articles to be processed.",
+          String.valueOf(found));
+      }
+      if ( lister.failure instanceof IOException )
+        throw (IOException) lister.failure;
+      if ( lister.failure != null )
+        throw (RuntimeException) lister.failure;
     }
     finally
     {
       Folders.delQuietly(tmp_folder);
+      final String metrics_file = config.getString("metrics.textfile");
+      if ( Str.isNotEmpty(metrics_file) )
+      {
+        log.trace("Writing metrics to {}", metrics_file);
+        Metrics.writeTextfile(new File(metrics_file));
+      }
     }
 
     return ret;
   }
 
+  private static void serveMetrics( final Config config ) throws IOException
+  {
+    final int metrics_port = config.getInt("metrics.port", 0);
+    if ( (metrics_port > 0) && (!Metrics.isServing()) )
+      Metrics.serve(
+        Str.ifEmpty(config.getString("metrics.address"), "127.0.0.1"),
+        metrics_port);
+  }
+
   private static int template( final File template_file ) throws IOException
   {
     if ( template_file.exists() )
@@ -385,6 +648,63 @@ public class Main
     return 0;
   }
 
+  private static int watch( final File session_file, final File config_file,
+      final TemplateFactory tf, final boolean quiet )
+    throws IOException,
+      ClassNotFoundException,
+      ConfigurationException
+  {
+    final Logger log = LoggerFactory.getLogger(Main.class);
+    final Warm warm = new Warm(SessionIO.read(session_file),
+        ConfigReader.read(config_file), tf);
+    serveMetrics(warm.config);
+
+    final long interval = TimeUnit.SECONDS.toMillis(Math.max(
+      MIN_WATCH_INTERVAL, warm.config.getInt("watch.interval", 300)));
+    final long max_interval = Math.max(interval, TimeUnit.SECONDS
+        .toMillis(warm.config.getInt("watch.interval.max", 3600)));
+    long wait = interval;
+
+    log.trace("Watching {} every {} seconds (up to {} seconds when idle).",
+      warm.session.getSourceType(),
+      String.valueOf(TimeUnit.MILLISECONDS.toSeconds(interval)),
+      String.valueOf(TimeUnit.MILLISECONDS.toSeconds(max_interval)));
+    while ( true )
+    {
+      try
+      {
+        processArticles(warm, quiet);
+      }
+      catch ( Exception ex )
+      {
+        log.error("", ex);
+        warm.delivered = 0;
+      }
+
+      // Check again soon after delivering something, but back off when there
+      // is nothing new (or the source is not working.) Articles that were
+      // skipped or failed don't count, as they are often the same ones found
+      // again.
+      if ( warm.delivered > 0 )
+        wait = interval;
+      else
+        wait = Math.min(max_interval, wait * 2L);
+
+      log.trace("Next check in {} seconds.",
+        String.valueOf(TimeUnit.MILLISECONDS.toSeconds(wait)));
+      Logback.flushLog();
+      try
+      {
+        Thread.sleep(wait);
+      }
+      catch ( InterruptedException ex )
+      {
+        warm.close();
+        return 0;
+      }
+    }
+  }
+
   private Main()
   {
     // empty
@@ -1,8 +1,22 @@
 package com.evanmclean.erudite.instapaper;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -15,16 +29,22 @@ import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.evanmclean.erudite.ArticleQueue;
 import com.evanmclean.erudite.config.TitleMunger;
 import com.evanmclean.erudite.misc.Conn;
+import com.evanmclean.erudite.misc.HtmlSlice;
 import com.evanmclean.erudite.sessions.Session;
+import com.evanmclean.evlib.charset.Charsets;
 import com.evanmclean.evlib.escape.Esc;
 import com.evanmclean.evlib.lang.Str;
 import com.evanmclean.evlib.util.Colls;
 import com.evanmclean.evlib.util.TreeMapIgnoreCase;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.io.Files;
 
 /**
  * Represents a login to the Instapaper service.
@@ -65,7 +85,7 @@ public class Instapaper
     {
       LoggerFactory.getLogger(getClass())
           .trace("Archiving article on Instapaper: {}", title);
-      connect(archiveUrl).execute();
+      Conn.execute(connect(archiveUrl));
     }
 
     @Override
@@ -77,7 +97,7 @@ public class Instapaper
     @Override
     public String getSourceUrl()
     {
-      return "https://www.instapaper.com/text?u=" + Esc.url.text(originalUrl);
+      return BASE_URL + "/text?u=" + Esc.url.text(originalUrl);
     }
 
     @Override
@@ -100,7 +120,7 @@ public class Instapaper
         "Moving article on Instapaper to {} folder: {}", folder.getName(),
         title);
       final Folder fldr = (Folder) folder;
-      connect(moveUrl + fldr.getId()).execute();
+      Conn.execute(connect(moveUrl + fldr.getId()));
     }
 
     @SuppressWarnings( "synthetic-access" )
@@ -109,7 +129,7 @@ public class Instapaper
     {
       LoggerFactory.getLogger(getClass())
           .trace("Removing article on Instapaper: {}", title);
-      connect(deleteUrl).method(Connection.Method.POST).execute();
+      Conn.execute(connect(deleteUrl).method(Connection.Method.POST));
     }
 
     @SuppressWarnings( "synthetic-access" )
@@ -121,8 +141,8 @@ public class Instapaper
       {
         LoggerFactory.getLogger(getClass())
             .trace("Retrieving article from Instapaper: {}", title);
-        final Document doc = connect(textUrl).get();
-        final Element story = doc.getElementById("story");
+        final Element story = HtmlSlice.getElementById(Conn
+            .getString(connect(textUrl)), "story", textUrl);
         if ( story == null )
           throw new HasInstapaperLayoutChangedException(
               "Could not find div#story for article: " + title);
@@ -183,6 +203,7 @@ public class Instapaper
     private final String url;
     private final String id;
     private ImmutableList<InstapaperArticle> _articles;
+    private Document _firstPage;
 
     Folder( final String name, final String url, final String id )
     {
@@ -191,16 +212,25 @@ public class Instapaper
       this.id = id;
     }
 
-    @SuppressWarnings( "synthetic-access" )
     @Override
     public ImmutableList<InstapaperArticle> getArticles() throws IOException
     {
       ImmutableList<InstapaperArticle> articles = _articles;
       if ( articles == null )
-        _articles = articles = _saveArticles(connect(url).get());
+        _articles = articles = _listArticles(null);
       return articles;
     }
 
+    @Override
+    public void getArticles( final ArticleQueue queue ) throws IOException
+    {
+      final ImmutableList<InstapaperArticle> articles = _articles;
+      if ( articles != null )
+        queue.addAll(articles);
+      else
+        _articles = _listArticles(queue);
+    }
+
     @Override
     public String getName()
     {
@@ -213,6 +243,122 @@ public class Instapaper
       return "InstapaperFolder(" + name + ", " + id + ", " + url + ')';
     }
 
+    /**
+     * Add the articles on a page to the list (and queue), skipping any we have
+     * already seen on an earlier page (they move to later pages if articles
+     * are saved while we are reading.)
+     *
+     * @return True if there is another page after this one.
+     */
+    private boolean _addPage( final Document doc,
+        final ImmutableList.Builder<InstapaperArticle> bldr,
+        final Set<String> seen, final ArticleQueue queue )
+    {
+      final ImmutableList<InstapaperArticle> page = _saveArticles(doc);
+      final List<InstapaperArticle> add = Colls.newArrayList();
+      for ( final InstapaperArticle article : page )
+        if ( seen.add(article.getOriginalUrl()) )
+          add.add(article);
+      bldr.addAll(add);
+      if ( queue != null )
+        queue.addAll(add);
+      return (!page.isEmpty())
+          && (!doc.select("a.paginate_older[href], .paginate_older a[href]")
+              .isEmpty());
+    }
+
+    /**
+     * Read the articles from each page of the folder. After the first page,
+     * up to {@link Instapaper#pageWindow} pages are loaded at once, but they
+     * are still added in order.
+     */
+    @SuppressWarnings( "synthetic-access" )
+    private ImmutableList<InstapaperArticle> _listArticles(
+        final ArticleQueue queue ) throws IOException
+    {
+      final ImmutableList.Builder<InstapaperArticle> bldr = ImmutableList
+          .builder();
+      final Set<String> seen = Colls.newHashSet();
+      // Use the first page if we already have it from reading the folders.
+      Document first = _firstPage;
+      _firstPage = null;
+      if ( first == null )
+        first = Conn.get(connect(url));
+      boolean more = _addPage(first, bldr, seen, queue);
+      if ( more && (maxPages > 1) )
+      {
+        final ExecutorService exec = Executors.newFixedThreadPool(pageWindow,
+          new ThreadFactory() {
+            @Override
+            public Thread newThread( final Runnable run )
+            {
+              final Thread thrd = new Thread(run, "eruditepages");
+              thrd.setDaemon(true);
+              return thrd;
+            }
+          });
+        try
+        {
+          final LinkedList<Future<Document>> pending = new LinkedList<Future<Document>>();
+          int next = 2;
+          while ( (pending.size() < pageWindow) && (next <= maxPages) )
+            pending.add(exec.submit(_page(next++)));
+          while ( more && (!pending.isEmpty())
+              && ((queue == null) || (!queue.isClosed())) )
+          {
+            more = _addPage(_get(pending.removeFirst()), bldr, seen, queue);
+            if ( more && (next <= maxPages) )
+              pending.add(exec.submit(_page(next++)));
+          }
+          if ( more && (next > maxPages) )
+            LoggerFactory.getLogger(getClass()).warn(
+              "Only read the first {} pages of the {} folder on Instapaper.",
+              String.valueOf(maxPages), name);
+        }
+        finally
+        {
+          exec.shutdownNow();
+        }
+      }
+      return bldr.build();
+    }
+
+    private Document _get( final Future<Document> future ) throws IOException
+    {
+      try
+      {
+        return future.get();
+      }
+      catch ( InterruptedException ex )
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted reading "
+            + name + " folder.");
+      }
+      catch ( ExecutionException ex )
+      {
+        if ( ex.getCause() instanceof IOException )
+          throw (IOException) ex.getCause();
+        throw new IOException(ex.getCause());
+      }
+    }
+
+    private Callable<Document> _page( final int page )
+    {
+      final String page_url = url + '/' + page;
+      return new Callable<Document>() {
+        @SuppressWarnings( "synthetic-access" )
+        @Override
+        public Document call() throws IOException
+        {
+          LoggerFactory.getLogger(getClass()).trace(
+            "Retrieving page {} of folder {} from Instapaper.",
+            String.valueOf(page), name);
+          return Conn.get(connect(page_url));
+        }
+      };
+    }
+
     @SuppressWarnings( "synthetic-access" )
     ImmutableList<InstapaperArticle> _saveArticles( final Document doc )
     {
@@ -314,9 +460,33 @@ public class Instapaper
    */
   public static final String DEFAULT_FOLDER = "Read Later";
 
-  private static final String BASE_URL = "https://www.instapaper.com";
+  /**
+   * Where to find Instapaper. Can be overridden with the
+   * <code>erudite.instapaper.url</code> system property (e.g., to point at a
+   * stand-in server for testing.)
+   */
+  private static final String BASE_URL = System.getProperty(
+    "erudite.instapaper.url", "https://www.instapaper.com");
   private static final String DEFAULT_URL = BASE_URL + "/u";
   private static final String DEFAULT_ID = "0";
+  private static final int DEFAULT_PAGE_WINDOW = 4;
+  private static final int DEFAULT_MAX_PAGES = 50;
+  private static final long FOLDER_CACHE_MAX_AGE = TimeUnit.DAYS.toMillis(1);
+  private static final Pattern FOLDER_ID = Pattern
+      .compile("\\/u\\/folder\\/(\\d+)\\/");
+
+  /**
+   * The folders (name to URL) last read for each session, for when we are
+   * watching.
+   */
+  private static final Cache<InstapaperSession, ImmutableMap<String, String>> KNOWN_FOLDERS = CacheBuilder
+      .newBuilder().weakKeys().expireAfterWrite(1, TimeUnit.DAYS).build();
+
+  private static String folderId( final String url )
+  {
+    final Matcher mat = FOLDER_ID.matcher(url);
+    return mat.find() ? mat.group(1) : null;
+  }
 
   /**
    * Create a {@link Session} for a login to the Instapaper service. Password is
@@ -337,7 +507,7 @@ public class Instapaper
     conn.data("username", email, "password", pass);
     conn.method(Connection.Method.POST);
 
-    Connection.Response resp = conn.execute();
+    Connection.Response resp = Conn.execute(conn);
     if ( resp.cookies().isEmpty() )
       return null;
     return new InstapaperSession(ImmutableMap.copyOf(resp.cookies()));
@@ -345,8 +515,13 @@ public class Instapaper
 
   private final InstapaperSession session;
   private final TitleMunger titleMunger;
+  private final int pageWindow;
+  private final int maxPages;
+  private final File folderCache;
 
   private ImmutableMap<String, Folder> _folders;
+  private TreeMapIgnoreCase<Folder> _knownFolders;
+  private Folder _readLater;
 
   /**
    * Create a logged-in connection to Instapaper based on a session previously
@@ -358,6 +533,29 @@ public class Instapaper
    *        A title munger to use on article titles.
    */
   public Instapaper( final Session session, final TitleMunger title_munger )
+  {
+    this(session, title_munger, DEFAULT_PAGE_WINDOW, DEFAULT_MAX_PAGES, null);
+  }
+
+  /**
+   * Create a logged-in connection to Instapaper based on a session previously
+   * produced by {@link #login(String, String)}.
+   *
+   * @param session
+   *        The session object to use.
+   * @param title_munger
+   *        A title munger to use on article titles.
+   * @param page_window
+   *        How many pages of a folder to load at once.
+   * @param max_pages
+   *        The most pages of a folder to read.
+   * @param folder_cache
+   *        Where to remember the folder names and IDs between runs, or
+   *        <code>null</code> to only remember them while the application is
+   *        running.
+   */
+  public Instapaper( final Session session, final TitleMunger title_munger,
+      final int page_window, final int max_pages, final File folder_cache )
   {
     if ( !(session instanceof InstapaperSession) )
       throw new IllegalArgumentException(
@@ -366,6 +564,9 @@ public class Instapaper
     this.session = (InstapaperSession) session;
     this.titleMunger = (title_munger != null) ? title_munger
         : TitleMunger.empty();
+    this.pageWindow = Math.max(1, page_window);
+    this.maxPages = Math.max(1, max_pages);
+    this.folderCache = folder_cache;
   }
 
   /**
@@ -376,8 +577,18 @@ public class Instapaper
    * @return The folder, or <code>null</code> if it does not exist.
    * @throws IOException
    */
-  public InstapaperFolder getFolder( final String name ) throws IOException
+  public synchronized InstapaperFolder getFolder( final String name )
+    throws IOException
   {
+    if ( DEFAULT_FOLDER.equalsIgnoreCase(name) )
+      return _getReadLater();
+    if ( _folders == null )
+    {
+      // Try the folders we knew about last time before loading them all.
+      final Folder folder = _getKnownFolders().get(name);
+      if ( folder != null )
+        return folder;
+    }
     return _getFolders().get(name);
   }
 
@@ -387,7 +598,8 @@ public class Instapaper
    * @return A list of all the folders on Instapaper.
    * @throws IOException
    */
-  public ImmutableList<InstapaperFolder> getFolders() throws IOException
+  public synchronized ImmutableList<InstapaperFolder> getFolders()
+    throws IOException
   {
     return ImmutableList.<InstapaperFolder> copyOf(_getFolders().values());
   }
@@ -399,11 +611,13 @@ public class Instapaper
    * @return The default folder.
    * @throws IOException
    */
-  public InstapaperFolder getReadLaterFolder() throws IOException
+  public synchronized InstapaperFolder getReadLaterFolder()
+    throws IOException
   {
-    return _getFolders().get(DEFAULT_FOLDER);
+    return _getReadLater();
   }
 
+  @SuppressWarnings( "synthetic-access" )
   private ImmutableMap<String, Folder> _getFolders() throws IOException
   {
     ImmutableMap<String, Folder> folders = _folders;
@@ -411,12 +625,14 @@ public class Instapaper
     {
       final Logger log = LoggerFactory.getLogger(getClass());
       log.trace("Retrieving folder list from Instapaper.");
-      final Document doc = connect(DEFAULT_URL).get();
+      final Document doc = Conn.get(connect(DEFAULT_URL));
       final TreeMapIgnoreCase<Folder> map = Colls.newTreeMapIgnoreCase();
       {
-        final Folder folder = new Folder(DEFAULT_FOLDER, DEFAULT_URL,
-            DEFAULT_ID);
-        folder._saveArticles(doc);
+        // The page is also the first page of articles in the default folder,
+        // so keep it in case they are wanted.
+        final Folder folder = _getReadLater();
+        if ( folder._articles == null )
+          folder._firstPage = doc;
         log.trace("Folder: {} => {}", DEFAULT_FOLDER, DEFAULT_URL);
         map.put(folder.getName(), folder);
       }
@@ -426,6 +642,7 @@ public class Instapaper
         _getFolders(folder_columns, map);
 
       _folders = folders = ImmutableSortedMap.copyOfSorted(map);
+      _saveKnownFolders(folders);
     }
     return folders;
   }
@@ -443,16 +660,9 @@ public class Instapaper
       else
       {
         final String name = Str.trimToNull(el.text());
-        final String url = el.attr("href");
-        final String id;
-        {
-          final Matcher mat = Pattern.compile("\\/u\\/folder\\/(\\d+)\\/")
-              .matcher(url);
-          if ( mat.find() )
-            id = mat.group(1);
-          else
-            id = null;
-        }
+        final String href = el.attr("href");
+        final String url = href.startsWith("/") ? BASE_URL + href : href;
+        final String id = folderId(url);
 
         if ( Str.isNotEmpty(name) && Str.isNotEmpty(url) && Str.isNotEmpty(id) )
         {
@@ -463,6 +673,110 @@ public class Instapaper
       }
   }
 
+  /**
+   * The folders we found last time (within the last day), so we can move
+   * articles to a folder, or read one, without loading the folder list.
+   */
+  private TreeMapIgnoreCase<Folder> _getKnownFolders()
+  {
+    TreeMapIgnoreCase<Folder> known = _knownFolders;
+    if ( known == null )
+    {
+      known = Colls.newTreeMapIgnoreCase();
+      ImmutableMap<String, String> urls = KNOWN_FOLDERS.getIfPresent(session);
+      if ( (urls == null) && (folderCache != null) && folderCache.exists()
+          && ((System.currentTimeMillis() - folderCache.lastModified()) //
+          < FOLDER_CACHE_MAX_AGE) )
+        urls = _readFolderCache();
+      if ( urls != null )
+        for ( final Map.Entry<String, String> entry : urls.entrySet() )
+        {
+          final String id = folderId(entry.getValue());
+          if ( id != null )
+            known.put(entry.getKey(), new Folder(entry.getKey(), entry
+                .getValue(), id));
+        }
+      _knownFolders = known;
+    }
+    return known;
+  }
+
+  private Folder _getReadLater()
+  {
+    Folder folder = _readLater;
+    if ( folder == null )
+      _readLater = folder = new Folder(DEFAULT_FOLDER, DEFAULT_URL, DEFAULT_ID);
+    return folder;
+  }
+
+  private ImmutableMap<String, String> _readFolderCache()
+  {
+    try
+    {
+      final Properties props = new Properties();
+      final Reader in = Files.newReader(folderCache, Charsets.UTF8);
+      try
+      {
+        props.load(in);
+      }
+      finally
+      {
+        in.close();
+      }
+      final ImmutableMap.Builder<String, String> bldr = ImmutableMap.builder();
+      for ( final String name : props.stringPropertyNames() )
+        bldr.put(name, props.getProperty(name));
+      return bldr.build();
+    }
+    catch ( IOException ex )
+    {
+      LoggerFactory.getLogger(getClass()).debug(
+        "Could not read Instapaper folders from " + folderCache, ex);
+      return null;
+    }
+  }
+
+  @SuppressWarnings( "synthetic-access" )
+  private void _saveKnownFolders( final ImmutableMap<String, Folder> folders )
+  {
+    final ImmutableMap.Builder<String, String> bldr = ImmutableMap.builder();
+    for ( final Folder folder : folders.values() )
+      if ( folder != _readLater )
+        bldr.put(folder.getName(), folder.url);
+    final ImmutableMap<String, String> urls = bldr.build();
+    KNOWN_FOLDERS.put(session, urls);
+
+    if ( folderCache == null )
+      return;
+    final Properties props = new Properties();
+    props.putAll(urls);
+    final File tmp = new File(folderCache.getPath() + ".tmp");
+    try
+    {
+      final Writer out = Files.newWriter(tmp, Charsets.UTF8);
+      try
+      {
+        props.store(out, "Instapaper folders");
+      }
+      finally
+      {
+        out.close();
+      }
+      if ( !tmp.renameTo(folderCache) )
+      {
+        folderCache.delete();
+        if ( !tmp.renameTo(folderCache) )
+          throw new IOException("Could not rename " + tmp + " to "
+              + folderCache);
+      }
+    }
+    catch ( IOException ex )
+    {
+      LoggerFactory.getLogger(getClass()).debug(
+        "Could not save Instapaper folders to " + folderCache, ex);
+    }
+  }
+
   private Connection connect( final String url )
   {
     final Connection conn = Conn.connect(url);
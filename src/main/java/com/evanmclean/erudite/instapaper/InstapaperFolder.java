@@ -2,6 +2,7 @@ package com.evanmclean.erudite.instapaper;
 
 import java.io.IOException;
 
+import com.evanmclean.erudite.ArticleQueue;
 import com.google.common.collect.ImmutableList;
 
 /**
@@ -21,6 +22,16 @@ public interface InstapaperFolder
    */
   ImmutableList<InstapaperArticle> getArticles() throws IOException;
 
+  /**
+   * Add the articles contained in the folder to the queue, a page at a time as
+   * each page is loaded.
+   * 
+   * @param queue
+   *        The queue to add the articles to (it is not closed.)
+   * @throws IOException
+   */
+  void getArticles( ArticleQueue queue ) throws IOException;
+
   /**
    * The name of the folder.
    * 
@@ -1,10 +1,12 @@
 package com.evanmclean.erudite.instapaper;
 
+import java.io.File;
 import java.io.IOException;
 
 import com.evanmclean.erudite.Article;
+import com.evanmclean.erudite.ArticleQueue;
 import com.evanmclean.erudite.Articles;
-import com.evanmclean.erudite.Source;
+import com.evanmclean.erudite.StreamingSource;
 import com.evanmclean.erudite.config.Config;
 import com.evanmclean.erudite.sessions.Session;
 import com.evanmclean.evlib.lang.Str;
@@ -15,7 +17,7 @@ import com.evanmclean.evlib.lang.Str;
  * @author Evan M<sup>c</sup>Lean, <a href="http://evanmclean.com/"
  *         target="_blank">M<sup>c</sup>Lean Computer Services</a>
  */
-class InstapaperSource implements Source
+class InstapaperSource implements StreamingSource
 {
   /**
    * Action to be used for onComplete or onError calls.
@@ -90,7 +92,10 @@ class InstapaperSource implements Source
 
   InstapaperSource( final Session session, final Config config )
   {
-    ip = new Instapaper(session, config.getTitleMunger());
+    final String folder_cache = config.getString("instapaper.folders.file");
+    ip = new Instapaper(session, config.getTitleMunger(), config.getInt(
+      "instapaper.page.window", 4), config.getInt("instapaper.page.max", 50),
+        Str.isEmpty(folder_cache) ? null : new File(folder_cache));
     articleFolder = config.getString("folder");
     onCompleteAction = parseAction(ip, config.getString("on.complete"));
     onErrorAction = parseAction(ip, config.getString("on.error"));
@@ -99,12 +104,13 @@ class InstapaperSource implements Source
   @Override
   public Articles getArticles() throws IOException
   {
-    final InstapaperFolder folder = (articleFolder == null) ? ip
-        .getReadLaterFolder() : ip.getFolder(articleFolder);
-    if ( folder == null )
-      throw new IOException("Unknown Instapaper folder: "
-          + Str.ifNull(articleFolder, Instapaper.DEFAULT_FOLDER));
-    return new Articles(folder.getArticles());
+    return new Articles(getFolder().getArticles());
+  }
+
+  @Override
+  public void getArticles( final ArticleQueue queue ) throws IOException
+  {
+    getFolder().getArticles(queue);
   }
 
   @Override
@@ -131,4 +137,13 @@ class InstapaperSource implements Source
     onErrorAction.run((InstapaperArticle) article);
   }
 
+  private InstapaperFolder getFolder() throws IOException
+  {
+    final InstapaperFolder folder = (articleFolder == null) ? ip
+        .getReadLaterFolder() : ip.getFolder(articleFolder);
+    if ( folder == null )
+      throw new IOException("Unknown Instapaper folder: "
+          + Str.ifNull(articleFolder, Instapaper.DEFAULT_FOLDER));
+    return folder;
+  }
 }
@@ -0,0 +1,175 @@
+package com.evanmclean.erudite.jfr;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Emits custom Java Flight Recorder events, so a run started with
+ * <code>-XX:StartFlightRecording</code> shows each article, HTTP request,
+ * image cache load and Calibre command on the same timeline as the garbage
+ * collections, thread activity, etc. The events are in the
+ * &ldquo;Erudite&rdquo; category.
+ * </p>
+ *
+ * <p>
+ * Call the <code>start</code> method before doing the work, and pass what it
+ * returns to the matching <code>end</code> method afterwards (usually in a
+ * <code>finally</code> block.) When the JVM does not have flight recorder, or
+ * it is not recording the event, <code>start</code> returns <code>null</code>
+ * and <code>end</code> does nothing.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+public final class Events
+{
+  private static final Recorder recorder = createRecorder();
+
+  /**
+   * Finish the event for processing an article.
+   *
+   * @param event
+   *        What {@link #startArticle()} returned.
+   * @param title
+   *        The title of the article.
+   * @param images
+   *        The number of images in the article.
+   * @param image_bytes
+   *        The size of the images in the article.
+   * @param okay
+   *        True if the article was processed without error.
+   */
+  public static void endArticle( final Object event, final String title,
+      final int images, final long image_bytes, final boolean okay )
+  {
+    if ( event != null )
+      recorder.endArticle(event, title, images, image_bytes, okay);
+  }
+
+  /**
+   * Finish the event for a HTTP request.
+   *
+   * @param event
+   *        What {@link #startHttp()} returned.
+   * @param host
+   *        The host the request was made to.
+   * @param status
+   *        The HTTP status code, or <code>-1</code> if there wasn't one.
+   * @param bytes
+   *        The size of the response body.
+   */
+  public static void endHttp( final Object event, final String host,
+      final int status, final long bytes )
+  {
+    if ( event != null )
+      recorder.endHttp(event, host, status, bytes);
+  }
+
+  /**
+   * Finish the event for loading an image into the image cache.
+   *
+   * @param event
+   *        What {@link #startImageLoad()} returned.
+   * @param url
+   *        The URL of the image.
+   * @param bytes
+   *        The size of the image as cached.
+   * @param okay
+   *        True if the image was loaded.
+   */
+  public static void endImageLoad( final Object event, final String url,
+      final long bytes, final boolean okay )
+  {
+    if ( event != null )
+      recorder.endImageLoad(event, url, bytes, okay);
+  }
+
+  /**
+   * Finish the event for running an external program.
+   *
+   * @param event
+   *        What {@link #startSubprocess()} returned.
+   * @param exe
+   *        The program that was run.
+   * @param exit_code
+   *        The exit code of the program, or <code>-1</code> if it could not
+   *        be run.
+   */
+  public static void endSubprocess( final Object event, final String exe,
+      final int exit_code )
+  {
+    if ( event != null )
+      recorder.endSubprocess(event, exe, exit_code);
+  }
+
+  /**
+   * Start the event for processing an article.
+   *
+   * @return The event, or <code>null</code> if not recording.
+   */
+  public static Object startArticle()
+  {
+    return (recorder == null) ? null : recorder.startArticle();
+  }
+
+  /**
+   * Start the event for a HTTP request.
+   *
+   * @return The event, or <code>null</code> if not recording.
+   */
+  public static Object startHttp()
+  {
+    return (recorder == null) ? null : recorder.startHttp();
+  }
+
+  /**
+   * Start the event for loading an image into the image cache.
+   *
+   * @return The event, or <code>null</code> if not recording.
+   */
+  public static Object startImageLoad()
+  {
+    return (recorder == null) ? null : recorder.startImageLoad();
+  }
+
+  /**
+   * Start the event for running an external program.
+   *
+   * @return The event, or <code>null</code> if not recording.
+   */
+  public static Object startSubprocess()
+  {
+    return (recorder == null) ? null : recorder.startSubprocess();
+  }
+
+  private static Recorder createRecorder()
+  {
+    try
+    {
+      Class.forName("jdk.jfr.Event");
+    }
+    catch ( ClassNotFoundException ex )
+    {
+      return null;
+    }
+
+    try
+    {
+      return (Recorder) Class.forName(Events.class.getPackage().getName()
+          + ".JfrRecorder").getDeclaredConstructor().newInstance();
+    }
+    catch ( Throwable ex )
+    {
+      LoggerFactory.getLogger(Events.class).trace(
+        "Flight recorder events not available.", ex);
+      return null;
+    }
+  }
+
+  private Events()
+  {
+    // empty
+  }
+}
@@ -0,0 +1,191 @@
+package com.evanmclean.erudite.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Records the events with flight recorder. Only loaded (by {@link Events})
+ * once we know the <code>jdk.jfr</code> classes are available.
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+final class JfrRecorder implements Recorder
+{
+  @Name( "erudite.ArticleProcessed" )
+  @Label( "Article Processed" )
+  @Category( "Erudite" )
+  static final class ArticleProcessed extends Event
+  {
+    @Label( "Title" )
+    String title;
+
+    @Label( "Images" )
+    int images;
+
+    @Label( "Image Bytes" )
+    @DataAmount
+    long imageBytes;
+
+    @Label( "Okay" )
+    boolean okay;
+  }
+
+  @Name( "erudite.HttpFetch" )
+  @Label( "HTTP Fetch" )
+  @Category( "Erudite" )
+  static final class HttpFetch extends Event
+  {
+    @Label( "Host" )
+    String host;
+
+    @Label( "Status" )
+    int status;
+
+    @Label( "Bytes" )
+    @DataAmount
+    long bytes;
+  }
+
+  @Name( "erudite.ImageCacheLoad" )
+  @Label( "Image Cache Load" )
+  @Category( "Erudite" )
+  static final class ImageCacheLoad extends Event
+  {
+    @Label( "URL" )
+    String url;
+
+    @Label( "Bytes" )
+    @DataAmount
+    long bytes;
+
+    @Label( "Okay" )
+    boolean okay;
+  }
+
+  @Name( "erudite.SubprocessRun" )
+  @Label( "Subprocess Run" )
+  @Category( "Erudite" )
+  static final class SubprocessRun extends Event
+  {
+    @Label( "Executable" )
+    String exe;
+
+    @Label( "Exit Code" )
+    int exitCode;
+  }
+
+  // Checked before creating an event, so nothing is allocated while the
+  // event is not being recorded.
+  private static final EventType articleType = EventType
+      .getEventType(ArticleProcessed.class);
+  private static final EventType httpType = EventType
+      .getEventType(HttpFetch.class);
+  private static final EventType imageLoadType = EventType
+      .getEventType(ImageCacheLoad.class);
+  private static final EventType subprocessType = EventType
+      .getEventType(SubprocessRun.class);
+
+  private static <E extends Event> E start( final E event )
+  {
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void endArticle( final Object event, final String title,
+      final int images, final long image_bytes, final boolean okay )
+  {
+    final ArticleProcessed evt = (ArticleProcessed) event;
+    evt.end();
+    if ( evt.shouldCommit() )
+    {
+      evt.title = title;
+      evt.images = images;
+      evt.imageBytes = image_bytes;
+      evt.okay = okay;
+      evt.commit();
+    }
+  }
+
+  @Override
+  public void endHttp( final Object event, final String host,
+      final int status, final long bytes )
+  {
+    final HttpFetch evt = (HttpFetch) event;
+    evt.end();
+    if ( evt.shouldCommit() )
+    {
+      evt.host = host;
+      evt.status = status;
+      evt.bytes = bytes;
+      evt.commit();
+    }
+  }
+
+  @Override
+  public void endImageLoad( final Object event, final String url,
+      final long bytes, final boolean okay )
+  {
+    final ImageCacheLoad evt = (ImageCacheLoad) event;
+    evt.end();
+    if ( evt.shouldCommit() )
+    {
+      evt.url = url;
+      evt.bytes = bytes;
+      evt.okay = okay;
+      evt.commit();
+    }
+  }
+
+  @Override
+  public void endSubprocess( final Object event, final String exe,
+      final int exit_code )
+  {
+    final SubprocessRun evt = (SubprocessRun) event;
+    evt.end();
+    if ( evt.shouldCommit() )
+    {
+      evt.exe = exe;
+      evt.exitCode = exit_code;
+      evt.commit();
+    }
+  }
+
+  @Override
+  public Object startArticle()
+  {
+    if ( !articleType.isEnabled() )
+      return null;
+    return start(new ArticleProcessed());
+  }
+
+  @Override
+  public Object startHttp()
+  {
+    if ( !httpType.isEnabled() )
+      return null;
+    return start(new HttpFetch());
+  }
+
+  @Override
+  public Object startImageLoad()
+  {
+    if ( !imageLoadType.isEnabled() )
+      return null;
+    return start(new ImageCacheLoad());
+  }
+
+  @Override
+  public Object startSubprocess()
+  {
+    if ( !subprocessType.isEnabled() )
+      return null;
+    return start(new SubprocessRun());
+  }
+}
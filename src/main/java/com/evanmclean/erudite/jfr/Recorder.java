@@ -0,0 +1,31 @@
+package com.evanmclean.erudite.jfr;
+
+/**
+ * What {@link Events} delegates to when flight recorder is available. Each
+ * <code>start</code> method returns the event (or <code>null</code> if that
+ * event is not enabled), which is then passed to the matching
+ * <code>end</code> method.
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+interface Recorder
+{
+  void endArticle( Object event, String title, int images, long image_bytes,
+      boolean okay );
+
+  void endHttp( Object event, String host, int status, long bytes );
+
+  void endImageLoad( Object event, String url, long bytes, boolean okay );
+
+  void endSubprocess( Object event, String exe, int exit_code );
+
+  Object startArticle();
+
+  Object startHttp();
+
+  Object startImageLoad();
+
+  Object startSubprocess();
+}
@@ -1,59 +1,114 @@
 package com.evanmclean.erudite.logback;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
 import ch.qos.logback.core.Appender;
-import ch.qos.logback.core.read.ListAppender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.FilterReply;
 
 /**
- * Stores events in a buffer and only flushes them to the parent appender on a
- * call to <code>flush()</code>.
- * 
+ * <p>
+ * Stores events in a buffer and only hands them to the {@link ConsoleWriter}
+ * on a call to <code>flush()</code>. Only ever used by a single thread, so
+ * there is no locking.
+ * </p>
+ *
+ * <p>
+ * Events the console would filter out anyway (e.g., debug and trace
+ * messages) are not kept. The buffer holds a fixed number of events, and if
+ * it fills up the oldest events are dropped (they are all in the log file
+ * anyway), with a note saying so when it is flushed.
+ * </p>
+ *
  * @author Evan M<sup>c</sup>Lean, <a href="http://evanmclean.com/"
  *         target="_blank">M<sup>c</sup>Lean Computer Services</a>
- * @param <E>
  */
-class BufferredAppender<E extends ILoggingEvent> extends ListAppender<E>
+class BufferredAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
 {
-  private final Appender<E> parent;
+  private static final int CAPACITY = 2000;
+
+  private final Appender<ILoggingEvent> console;
+  private final ConsoleWriter writer;
   private final boolean quiet;
+  private final ILoggingEvent[] ring = new ILoggingEvent[CAPACITY];
+  private int head;
+  private int size;
+  private int dropped;
+  private boolean anyErrors;
 
   /**
-   * @param parent
-   *        The parent appender to flush to.
+   * @param console
+   *        The console appender, whose filters decide which events to keep.
+   * @param writer
+   *        Writes the events to the console.
    * @param quiet
    *        Only flush the buffered logs if any of them where of an error level.
    */
-  BufferredAppender( final Appender<E> parent, final boolean quiet )
+  BufferredAppender( final Appender<ILoggingEvent> console,
+      final ConsoleWriter writer, final boolean quiet )
   {
-    this.parent = parent;
+    this.console = console;
+    this.writer = writer;
     this.quiet = quiet;
   }
 
   /**
-   * Flush and clear the list of buffered events. The set of events are written
-   * to the parent while being <code>synchronized</code> on the parent object.
+   * Hand the buffered events to the writer and clear the buffer.
    */
   void flush()
   {
-    if ( doFlush() )
-      synchronized ( parent )
-      {
-        for ( final E event_object : list )
-          parent.doAppend(event_object);
-      }
-    list.clear();
+    if ( (size > 0) && ((!quiet) || anyErrors) )
+    {
+      final List<ILoggingEvent> events = new ArrayList<ILoggingEvent>(size + 1);
+      if ( dropped > 0 )
+        events.add(droppedNote(ring[head]));
+      for ( int xi = 0; xi < size; ++xi )
+        events.add(ring[(head + xi) % CAPACITY]);
+      writer.write(events, false);
+    }
+    Arrays.fill(ring, null);
+    head = 0;
+    size = 0;
+    dropped = 0;
+    anyErrors = false;
+  }
+
+  @Override
+  protected void append( final ILoggingEvent event )
+  {
+    if ( console.getFilterChainDecision(event) == FilterReply.DENY )
+      return;
+    event.prepareForDeferredProcessing();
+    if ( size < CAPACITY )
+    {
+      ring[(head + size) % CAPACITY] = event;
+      ++size;
+    }
+    else
+    {
+      ring[head] = event;
+      head = (head + 1) % CAPACITY;
+      ++dropped;
+    }
+    if ( Level.ERROR.equals(event.getLevel()) )
+      anyErrors = true;
   }
 
-  private boolean doFlush()
+  private LoggingEvent droppedNote( final ILoggingEvent first )
   {
-    if ( list.isEmpty() )
-      return false;
-    if ( !quiet )
-      return true;
-    for ( final E event_object : list )
-      if ( Level.ERROR.equals(event_object.getLevel()) )
-        return true;
-    return false;
+    final LoggingEvent note = new LoggingEvent();
+    note.setLevel(Level.WARN);
+    note.setLoggerName(first.getLoggerName());
+    note.setThreadName(first.getThreadName());
+    note.setTimeStamp(first.getTimeStamp());
+    note.setLoggerContextRemoteView(first.getLoggerContextVO());
+    note.setMessage("(" + dropped
+        + " earlier messages not shown here, see the log file.)");
+    return note;
   }
 }
@@ -0,0 +1,183 @@
+package com.evanmclean.erudite.logback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+
+/**
+ * <p>
+ * The only thread that writes to the console. Other threads hand it batches
+ * of events, which are written in the order they were handed over, so the
+ * threads doing the work don't wait on the console or on each other.
+ * </p>
+ *
+ * <p>
+ * Threads that don't buffer their events (e.g., the main thread) wait for
+ * their event to be written, so it comes after everything handed over before
+ * it and is on the console before the program exits.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+final class ConsoleWriter
+{
+  // Compared by identity, so it must not be a list anyone else could pass in.
+  private static final List<ILoggingEvent> STOP = new ArrayList<ILoggingEvent>();
+
+  private final Appender<ILoggingEvent> console;
+  private final LinkedBlockingQueue<List<ILoggingEvent>> queue = new LinkedBlockingQueue<List<ILoggingEvent>>();
+  private final Thread thread;
+  private long queued;
+  private long written;
+  private boolean closed;
+
+  /**
+   * Create and start the writer.
+   *
+   * @param console
+   *        The appender to write the events to.
+   */
+  ConsoleWriter( final Appender<ILoggingEvent> console )
+  {
+    this.console = console;
+    thread = new Thread("eruditelog") {
+      @SuppressWarnings( "synthetic-access" )
+      @Override
+      public void run()
+      {
+        drain();
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Write any events still waiting and stop the writer thread.
+   */
+  void close()
+  {
+    synchronized ( this )
+    {
+      if ( closed )
+        return;
+      // Set under the same lock as write, so nothing is queued after STOP.
+      closed = true;
+      queue.add(STOP);
+    }
+    join();
+  }
+
+  /**
+   * Write a single event, waiting for it to be written.
+   *
+   * @param event
+   *        The event.
+   */
+  void write( final ILoggingEvent event )
+  {
+    write(Collections.singletonList(event), true);
+  }
+
+  /**
+   * Write a batch of events.
+   *
+   * @param events
+   *        The events, which must have been prepared for deferred processing.
+   * @param wait
+   *        Wait for the events (and everything before them) to be written.
+   */
+  void write( final List<ILoggingEvent> events, final boolean wait )
+  {
+    long seq = -1L;
+    synchronized ( this )
+    {
+      if ( !closed && thread.isAlive() )
+      {
+        seq = ++queued;
+        queue.add(events);
+      }
+    }
+    if ( seq < 0L )
+    {
+      // Stopped or stopping (e.g., Logback is being configured again), so
+      // write them ourselves once everything queued has been written.
+      join();
+      for ( final ILoggingEvent event : events )
+        console.doAppend(event);
+      return;
+    }
+
+    if ( wait )
+    {
+      boolean interrupted = false;
+      synchronized ( this )
+      {
+        while ( (written < seq) && thread.isAlive() )
+          try
+          {
+            wait(100L);
+          }
+          catch ( InterruptedException ex )
+          {
+            interrupted = true;
+          }
+      }
+      if ( interrupted )
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Wait for the writer thread to write what was queued before it was closed.
+   */
+  private void join()
+  {
+    if ( Thread.currentThread() == thread )
+      return;
+    try
+    {
+      thread.join(5000L);
+    }
+    catch ( InterruptedException ex )
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void drain()
+  {
+    try
+    {
+      while ( true )
+      {
+        final List<ILoggingEvent> events = queue.take();
+        if ( events == STOP )
+          return;
+        try
+        {
+          for ( final ILoggingEvent event : events )
+            console.doAppend(event);
+        }
+        finally
+        {
+          synchronized ( this )
+          {
+            ++written;
+            notifyAll();
+          }
+        }
+      }
+    }
+    catch ( InterruptedException ex )
+    {
+      // Stop.
+    }
+  }
+}
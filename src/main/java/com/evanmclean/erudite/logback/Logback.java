@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 import com.evanmclean.erudite.ProcessorThread;
 import com.evanmclean.evlib.lang.Str;
 
+import ch.qos.logback.classic.AsyncAppender;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
@@ -15,6 +16,7 @@ import ch.qos.logback.classic.filter.ThresholdFilter;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.ConsoleAppender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import ch.qos.logback.core.filter.Filter;
 import ch.qos.logback.core.rolling.FixedWindowRollingPolicy;
 import ch.qos.logback.core.rolling.RollingFileAppender;
@@ -35,6 +37,20 @@ import ch.qos.logback.core.util.StatusPrinter;
  * messages on the console from the processing of different articles.
  * </p>
  *
+ * <p>
+ * Each worker buffers its messages without any locking (see
+ * {@link BufferredAppender}), and flushing hands them to a single thread that
+ * does all the writing to the console (see {@link ConsoleWriter}), so the
+ * workers never wait on the console or each other.
+ * </p>
+ *
+ * <p>
+ * The log file is written in the background too, in batches, and only gets
+ * messages at the level set by {@link #setFileLevel(String)} (debug by
+ * default) and above. Loggers aren't enabled for anything below that and
+ * the console level, so trace messages cost next to nothing unless wanted.
+ * </p>
+ *
  * @author Evan M<sup>c</sup>Lean,
  *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
  *         Computer Services</a>
@@ -42,7 +58,12 @@ import ch.qos.logback.core.util.StatusPrinter;
 public class Logback
 {
   private static ThreadLocalAppender<Appender<ILoggingEvent>, ILoggingEvent> localapp;
+  private static ConsoleWriter writer;
+  private static ThresholdFilter fileFilter;
+  private static Level fileLevel = Level.DEBUG;
+  private static Level consoleLevel;
   private static boolean configured;
+  private static boolean shutdownHook;
 
   /**
    * Configure Logback.
@@ -55,6 +76,7 @@ public class Logback
   public static void configure( final File log_file,
       final ConsoleLogging clogging )
   {
+    stopWriter();
     final LoggerContext context = (LoggerContext) LoggerFactory
         .getILoggerFactory();
     context.reset();
@@ -64,7 +86,7 @@ public class Logback
     try
     {
       final Logger root = context.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
-      root.setLevel(Level.ALL);
+      consoleLevel = null;
 
       // Setup file appender.
       {
@@ -73,6 +95,9 @@ public class Logback
         logapp.setContext(context);
         logapp.setName("file");
         logapp.setAppend(false);
+        // Written in batches by the async appender below, and flushed when
+        // it is stopped.
+        logapp.setImmediateFlush(false);
         {
           final FixedWindowRollingPolicy policy = new FixedWindowRollingPolicy();
           policy.setContext(context);
@@ -106,7 +131,25 @@ public class Logback
         }
         logapp.start();
         logapp.rollover();
-        root.addAppender(logapp);
+
+        final AsyncAppender asyncapp = new AsyncAppender();
+        asyncapp.setContext(context);
+        asyncapp.setName("asyncfile");
+        asyncapp.setQueueSize(8192);
+        // Never drop anything.
+        asyncapp.setDiscardingThreshold(0);
+        asyncapp.setMaxFlushTime(5000);
+        asyncapp.addAppender(logapp);
+        {
+          final ThresholdFilter filter = new ThresholdFilter();
+          filter.setContext(context);
+          filter.setLevel(fileLevel.toString());
+          filter.start();
+          asyncapp.addFilter(filter);
+          fileFilter = filter;
+        }
+        asyncapp.start();
+        root.addAppender(asyncapp);
       }
 
       if ( !ConsoleLogging.SILENT.equals(clogging) )
@@ -118,6 +161,7 @@ public class Logback
           parentapp.setContext(context);
           parentapp.setName("realconsole");
           final boolean verbose = ConsoleLogging.VERBOSE.equals(clogging);
+          consoleLevel = verbose ? Level.DEBUG : Level.INFO;
           {
             final PatternLayoutEncoder enc = new PatternLayoutEncoder();
             enc.setContext(context);
@@ -134,8 +178,7 @@ public class Logback
           {
             final ThresholdFilter filter = new ThresholdFilter();
             filter.setContext(context);
-            filter.setLevel(
-              verbose ? Level.DEBUG.toString() : Level.INFO.toString());
+            filter.setLevel(consoleLevel.toString());
             filter.start();
             conapp.addFilter(filter);
             conapp.addFilter(new Filter<ILoggingEvent>() {
@@ -156,6 +199,24 @@ public class Logback
           conapp.start();
         }
 
+        // Setup the single thread that writes to the console, and the
+        // appender for threads that don't buffer their messages.
+        final ConsoleWriter conwriter = new ConsoleWriter(conapp);
+        writer = conwriter;
+        final Appender<ILoggingEvent> directapp = new UnsynchronizedAppenderBase<ILoggingEvent>() {
+          @Override
+          protected void append( final ILoggingEvent event )
+          {
+            if ( conapp.getFilterChainDecision(event) == FilterReply.DENY )
+              return;
+            event.prepareForDeferredProcessing();
+            conwriter.write(event);
+          }
+        };
+        directapp.setContext(context);
+        directapp.setName("directconsole");
+        directapp.start();
+
         // Setup local threaded appender.
         final boolean quiet = ConsoleLogging.QUIET.equals(clogging);
         localapp = new ThreadLocalAppender<Appender<ILoggingEvent>, ILoggingEvent>(
@@ -164,16 +225,17 @@ public class Logback
               protected Appender<ILoggingEvent> initialValue()
               {
                 final String name = Thread.currentThread().getName();
-                if ( Str.startsWithIgnoreCase(name, "eruditeworker") )
+                if ( Str.startsWithIgnoreCase(name, "eruditeworker")
+                    || Str.startsWithIgnoreCase(name, "eruditeactions") )
                 {
-                  final Appender<ILoggingEvent> app = new BufferredAppender<ILoggingEvent>(
-                      conapp, quiet);
+                  final Appender<ILoggingEvent> app = new BufferredAppender(
+                      conapp, conwriter, quiet);
                   app.setContext(context);
                   app.setName(name);
                   app.start();
                   return app;
                 }
-                return conapp;
+                return directapp;
               }
             });
 
@@ -183,6 +245,20 @@ public class Logback
         root.addAppender(localapp);
       }
 
+      setRootLevel(root);
+      if ( !shutdownHook )
+      {
+        // Make sure the last of the log file is written on exit.
+        Runtime.getRuntime().addShutdownHook(new Thread("eruditelogstop") {
+          @Override
+          public void run()
+          {
+            ((LoggerContext) LoggerFactory.getILoggerFactory()).stop();
+          }
+        });
+        shutdownHook = true;
+      }
+
       okay = true;
       configured = true;
     }
@@ -198,6 +274,7 @@ public class Logback
    */
   public static void devnull()
   {
+    stopWriter();
     final LoggerContext context = (LoggerContext) LoggerFactory
         .getILoggerFactory();
     context.reset();
@@ -211,8 +288,8 @@ public class Logback
     if ( localapp != null )
     {
       final Appender<ILoggingEvent> app = localapp.get();
-      if ( app instanceof BufferredAppender<?> )
-        ((BufferredAppender<?>) app).flush();
+      if ( app instanceof BufferredAppender )
+        ((BufferredAppender) app).flush();
     }
   }
 
@@ -225,4 +302,43 @@ public class Logback
   {
     return configured;
   }
+
+  /**
+   * Set the lowest level of message written to the log file.
+   *
+   * @param level
+   *        The level (e.g., &ldquo;trace&rdquo;, &ldquo;debug&rdquo; or
+   *        &ldquo;info&rdquo;.) Debug if not a valid level.
+   */
+  public static void setFileLevel( final String level )
+  {
+    if ( (!configured) || (fileFilter == null) )
+      return;
+    fileLevel = Level.toLevel(level, Level.DEBUG);
+    fileFilter.setLevel(fileLevel.toString());
+    final LoggerContext context = (LoggerContext) LoggerFactory
+        .getILoggerFactory();
+    setRootLevel(context.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME));
+  }
+
+  /**
+   * Only enable the levels that will be written somewhere.
+   */
+  private static void setRootLevel( final Logger root )
+  {
+    Level level = fileLevel;
+    if ( (consoleLevel != null) && (!consoleLevel.isGreaterOrEqual(level)) )
+      level = consoleLevel;
+    root.setLevel(level);
+  }
+
+  private static void stopWriter()
+  {
+    localapp = null;
+    if ( writer != null )
+    {
+      writer.close();
+      writer = null;
+    }
+  }
 }
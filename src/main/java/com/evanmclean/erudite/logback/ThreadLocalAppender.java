@@ -1,18 +1,19 @@
 package com.evanmclean.erudite.logback;
 
 import ch.qos.logback.core.Appender;
-import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
 
 /**
  * And appender where events are appended to an internally maintained thread
- * local appender.
+ * local appender. As each thread has its own appender, there is no locking
+ * here.
  * 
  * @author Evan M<sup>c</sup>Lean, <a href="http://evanmclean.com/"
  *         target="_blank">M<sup>c</sup>Lean Computer Services</a>
  * @param <A>
  * @param <E>
  */
-class ThreadLocalAppender<A extends Appender<E>, E> extends AppenderBase<E>
+class ThreadLocalAppender<A extends Appender<E>, E> extends UnsynchronizedAppenderBase<E>
 {
   private final ThreadLocal<A> appenders;
 
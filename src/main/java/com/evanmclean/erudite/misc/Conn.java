@@ -1,7 +1,30 @@
 package com.evanmclean.erudite.misc;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import org.jsoup.Connection;
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.evanmclean.erudite.config.Config;
+import com.evanmclean.erudite.jfr.Events;
+import com.evanmclean.evlib.charset.Charsets;
+import com.evanmclean.evlib.lang.Str;
 
 /**
  * <p>
@@ -13,12 +36,101 @@ import org.jsoup.Jsoup;
  * parameters of the connection such as the timeout.
  * </p>
  * 
+ * <p>
+ * Requests should be made with {@link #execute(Connection)} and
+ * {@link #get(Connection)} rather than directly on the connection, so they are
+ * counted and timed in the {@link Metrics} (and recorded as flight recorder
+ * events.)
+ * </p>
+ * 
+ * <p>
+ * Those requests are also kept within the rate limits for each host, and
+ * retried if they fail in a way that might work next time. See
+ * {@link #configure(Config)}.
+ * </p>
+ * 
  * @author Evan M<sup>c</sup>Lean, <a href="http://evanmclean.com/"
  *         target="_blank">M<sup>c</sup>Lean Computer Services</a>
  */
 public final class Conn
 {
+  /**
+   * The retry and rate limit settings, from {@link Conn#configure(Config)}.
+   */
+  private static final class Settings
+  {
+    final Config config;
+    final int retries;
+    final long retryDelay;
+    final long maxRetryDelay;
+    final long deadline;
+    final int rate;
+    final int burst;
+
+    /**
+     * @param config
+     *        The configuration, or <code>null</code> for the defaults.
+     */
+    Settings( final Config config )
+    {
+      this.config = config;
+      this.retries = Math.max(0, get("http.retries", 2));
+      this.retryDelay = Math.max(1, get("http.retry.ms", 1000));
+      this.maxRetryDelay = Math.max(retryDelay, get("http.retry.max.ms",
+        30000));
+      this.deadline = TimeUnit.SECONDS.toMillis(Math.max(1, get(
+        "http.deadline.seconds", 120)));
+      this.rate = Math.max(0, get("http.rate", 0));
+      this.burst = Math.max(1, get("http.rate.burst", 5));
+    }
+
+    int rate( final String host )
+    {
+      return Math.max(0, get("http.rate." + host, rate));
+    }
+
+    private int get( final String key, final int def )
+    {
+      return (config == null) ? def : config.getInt(key, def);
+    }
+  }
+
   private static final int TIMEOUT = 30000;
+  /**
+   * How far into a page to look for a <code>&lt;meta&gt;</code> charset (the
+   * same as jsoup.)
+   */
+  private static final int CHARSET_SNIFF_LEN = 5000;
+  private static final Pattern META_CHARSET = Pattern.compile(
+    "<meta\\s[^>]*?charset\\s*=\\s*[\"']?\\s*([-\\w.:]+)",
+    Pattern.CASE_INSENSITIVE);
+  private static final String[] LIMIT_HEADERS = { "X-Limit-User",
+      "X-Limit-Key" };
+
+  private static final Metrics.Counter REQUESTS = Metrics.counter(
+    "erudite_http_requests_total", "HTTP requests made, by host and status.",
+    "host", "status");
+  private static final Metrics.Timer REQUEST_TIME = Metrics.timer(
+    "erudite_http_request", "Time taken by HTTP requests, by host.", "host");
+  private static final Metrics.Counter RETRIES = Metrics.counter(
+    "erudite_http_retries_total", "HTTP requests retried, by host.", "host");
+  private static final Logger log = LoggerFactory.getLogger(Conn.class);
+
+  private static volatile Settings settings = new Settings(null);
+  private static volatile HostLimits limits = new HostLimits();
+
+  /**
+   * Set up the retries, rate limits and deadlines for requests from the
+   * configuration. Also forgets any limits from previous requests.
+   * 
+   * @param config
+   *        The configuration.
+   */
+  public static void configure( final Config config )
+  {
+    settings = new Settings(config);
+    limits = new HostLimits();
+  }
 
   /**
    * Return a HTTP connection for a URL.
@@ -35,6 +147,321 @@ public final class Conn
     return conn;
   }
 
+  /**
+   * Execute the request, recording it in the metrics. Requests are held back
+   * to keep within the rate limit for the host (and any limits the host has
+   * told us about), and retried with an increasing, jittered delay if they
+   * fail in a way that might work next time (e.g., &ldquo;too many
+   * requests&rdquo; or &ldquo;service unavailable&rdquo;), as long as that
+   * can be done before the deadline for the call.
+   * 
+   * @param conn
+   *        The connection (from {@link #connect(String)}.)
+   * @return The response.
+   * @throws IOException
+   */
+  public static Connection.Response execute( final Connection conn )
+    throws IOException
+  {
+    final Settings set = settings;
+    final String url = conn.request().url().toString();
+    final String host = HostBackoff.host(url);
+    final Connection.Method method = conn.request().method();
+    final boolean idempotent = (method == Connection.Method.GET)
+        || (method == Connection.Method.HEAD);
+    final long deadline = HostLimits.now() + set.deadline;
+
+    // So we can see the headers of error responses.
+    final boolean ignore_errors = conn.request().ignoreHttpErrors();
+    final int timeout = conn.request().timeout();
+    conn.ignoreHttpErrors(true);
+    try
+    {
+      long backoff = set.retryDelay;
+      for ( int attempt = 0;; ++attempt )
+      {
+        awaitLimits(set, host, url, deadline);
+        conn.timeout((int) Math.max(1L, Math.min(TIMEOUT, deadline
+            - HostLimits.now())));
+
+        Connection.Response resp = null;
+        IOException failure;
+        long wait = -1L;
+        try
+        {
+          resp = executeOnce(conn, host);
+          final long limited = limitReset(resp);
+          if ( limited > 0L )
+            limits.pause(host, limited);
+          final int status = resp.statusCode();
+          if ( status < 400 )
+            return resp;
+          failure = new HttpStatusException("HTTP error fetching URL", status,
+              url);
+          if ( (status == 429) || (status == 503) )
+            wait = retryAfter(resp);
+          else if ( (status == 403) && (limited > 0L) )
+            wait = limited;
+          else if ( (!idempotent) || ((status != 502) && (status != 504)) )
+            return giveUp(resp, ignore_errors, failure);
+        }
+        catch ( ConnectException ex )
+        {
+          failure = ex;
+        }
+        catch ( SocketException ex )
+        {
+          // Connection reset and the like.
+          if ( !idempotent )
+            throw ex;
+          failure = ex;
+        }
+
+        final boolean told = (wait >= 0L);
+        if ( !told )
+        {
+          wait = jitter(backoff);
+          backoff = Math.min(set.maxRetryDelay, backoff * 2L);
+        }
+        if ( (attempt >= set.retries) || (wait > set.maxRetryDelay)
+            || ((HostLimits.now() + wait) >= deadline) )
+          return giveUp(resp, ignore_errors, failure);
+
+        RETRIES.inc(host);
+        log.debug("Retrying {} in {}ms: {}", url, String.valueOf(wait),
+          failure.toString());
+        if ( told )
+          limits.pause(host, wait); // Hold off the other threads too.
+        sleep(wait, url);
+      }
+    }
+    finally
+    {
+      conn.ignoreHttpErrors(ignore_errors);
+      conn.timeout(timeout);
+    }
+  }
+
+  /**
+   * Execute the request as a GET and parse the result, recording it in the
+   * metrics.
+   * 
+   * @param conn
+   *        The connection (from {@link #connect(String)}.)
+   * @return The parsed document.
+   * @throws IOException
+   */
+  public static Document get( final Connection conn ) throws IOException
+  {
+    conn.method(Connection.Method.GET);
+    return execute(conn).parse();
+  }
+
+  /**
+   * Execute the request as a GET and return the body without parsing it,
+   * recording it in the metrics. The body is decoded the same way as
+   * {@link #get(Connection)} would: with the charset from the response
+   * header, otherwise from a byte order mark or a <code>&lt;meta&gt;</code>
+   * tag near the start of the page, otherwise as UTF-8.
+   * 
+   * @param conn
+   *        The connection (from {@link #connect(String)}.)
+   * @return The body of the response.
+   * @throws IOException
+   */
+  public static String getString( final Connection conn ) throws IOException
+  {
+    conn.method(Connection.Method.GET);
+    final Connection.Response resp = execute(conn);
+    final byte[] bytes = resp.bodyAsBytes();
+    final Charset charset = charset(resp.charset(), bytes);
+    int offset = 0;
+    if ( Charsets.UTF8.equals(charset) && (bytes.length >= 3)
+        && ((bytes[0] & 0xff) == 0xef) && ((bytes[1] & 0xff) == 0xbb)
+        && ((bytes[2] & 0xff) == 0xbf) )
+      offset = 3;
+    return new String(bytes, offset, bytes.length - offset, charset);
+  }
+
+  /**
+   * Work out the charset of a page.
+   *
+   * @param header
+   *        The charset given in the <code>Content-Type</code> header, if any.
+   * @param bytes
+   *        The page.
+   * @return The charset to decode the page with.
+   */
+  private static Charset charset( final String header, final byte[] bytes )
+  {
+    final Charset from_header = toCharset(header);
+    if ( from_header != null )
+      return from_header;
+
+    // Java's UTF-16 decoder reads (and drops) the byte order mark.
+    if ( (bytes.length >= 2)
+        && ((((bytes[0] & 0xff) == 0xfe) && ((bytes[1] & 0xff) == 0xff))
+            || (((bytes[0] & 0xff) == 0xff) && ((bytes[1] & 0xff) == 0xfe))) )
+      return Charsets.UTF16;
+
+    final Matcher mat = META_CHARSET.matcher(new String(bytes, 0, Math.min(
+      bytes.length, CHARSET_SNIFF_LEN), Charsets.ISO88591));
+    if ( mat.find() )
+    {
+      final Charset from_meta = toCharset(mat.group(1));
+      if ( from_meta != null )
+        return from_meta;
+    }
+    return Charsets.UTF8;
+  }
+
+  private static Charset toCharset( final String name )
+  {
+    if ( Str.isEmpty(name) )
+      return null;
+    try
+    {
+      return Charset.isSupported(name) ? Charset.forName(name) : null;
+    }
+    catch ( IllegalCharsetNameException ex )
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Wait until we can make a request to the host.
+   */
+  private static void awaitLimits( final Settings set, final String host,
+      final String url, final long deadline ) throws IOException
+  {
+    long wait;
+    while ( (wait = limits.acquire(host, set.rate(host), set.burst)) > 0L )
+    {
+      if ( (HostLimits.now() + wait) >= deadline )
+        throw new IOException("Rate limited by " + host + " for another "
+            + TimeUnit.MILLISECONDS.toSeconds(wait + 999L)
+            + " seconds, giving up on " + url);
+      sleep(wait, url);
+    }
+  }
+
+  private static Connection.Response executeOnce( final Connection conn,
+      final String host ) throws IOException
+  {
+    final Object event = Events.startHttp();
+    final long start = System.nanoTime();
+    int status = -1;
+    long bytes = 0L;
+    try
+    {
+      final Connection.Response resp = conn.execute();
+      status = resp.statusCode();
+      bytes = resp.bodyAsBytes().length;
+      return resp;
+    }
+    finally
+    {
+      REQUEST_TIME.since(start, host);
+      REQUESTS.inc(host, (status < 0) ? "error" : String.valueOf(status));
+      Events.endHttp(event, host, status, bytes);
+    }
+  }
+
+  private static Connection.Response giveUp( final Connection.Response resp,
+      final boolean ignore_errors, final IOException failure )
+    throws IOException
+  {
+    if ( (resp != null) && ignore_errors )
+      return resp;
+    throw failure;
+  }
+
+  /**
+   * Somewhere between half and all of the delay, so threads that failed at
+   * the same time don't all retry at the same time.
+   */
+  private static long jitter( final long delay )
+  {
+    final long half = delay / 2L;
+    return half + ThreadLocalRandom.current().nextLong(half + 1L);
+  }
+
+  /**
+   * If the response says we have used up our requests (the
+   * <code>X-Limit-*</code> headers from Pocket), how long until we can make
+   * more.
+   * 
+   * @return Milliseconds until the limit is reset, or zero if not limited.
+   */
+  private static long limitReset( final Connection.Response resp )
+  {
+    long ret = 0L;
+    for ( final String name : LIMIT_HEADERS )
+    {
+      final String remaining = resp.header(name + "-Remaining");
+      final String reset = resp.header(name + "-Reset");
+      if ( (remaining == null) || (reset == null) )
+        continue;
+      try
+      {
+        if ( Long.parseLong(remaining.trim()) <= 0L )
+          ret = Math.max(ret, TimeUnit.SECONDS.toMillis(Long.parseLong(reset
+              .trim())));
+      }
+      catch ( NumberFormatException ex )
+      {
+        // ignore
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * The <code>Retry-After</code> header, either in seconds or a date.
+   * 
+   * @return Milliseconds to wait, or -1 if not specified.
+   */
+  private static long retryAfter( final Connection.Response resp )
+  {
+    final String val = Str.trimToNull(resp.header("Retry-After"));
+    if ( val == null )
+      return -1L;
+    try
+    {
+      return TimeUnit.SECONDS.toMillis(Math.max(0L, Long.parseLong(val)));
+    }
+    catch ( NumberFormatException ex )
+    {
+      // Try it as a date.
+    }
+    try
+    {
+      final SimpleDateFormat fmt = new SimpleDateFormat(
+          "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+      return Math.max(0L, fmt.parse(val).getTime()
+          - System.currentTimeMillis());
+    }
+    catch ( ParseException ex )
+    {
+      return -1L;
+    }
+  }
+
+  private static void sleep( final long millis, final String url )
+    throws InterruptedIOException
+  {
+    try
+    {
+      Thread.sleep(millis);
+    }
+    catch ( InterruptedException ex )
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting to retry " + url);
+    }
+  }
+
   private Conn()
   {
     // empty
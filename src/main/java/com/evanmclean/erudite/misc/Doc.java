@@ -8,6 +8,7 @@ import java.io.Writer;
 
 import org.jsoup.nodes.Document;
 
+import com.evanmclean.erudite.Stage;
 import com.evanmclean.evlib.charset.Charsets;
 import com.evanmclean.evlib.io.UTF8FileWriter;
 
@@ -22,14 +23,22 @@ public final class Doc
   public static void write( final Document doc, final File file )
     throws IOException
   {
-    final Writer out = new UTF8FileWriter(file);
+    Stage.WRITE.start();
     try
     {
-      write(doc, out);
+      final Writer out = new UTF8FileWriter(file);
+      try
+      {
+        write(doc, out);
+      }
+      finally
+      {
+        out.close();
+      }
     }
     finally
     {
-      out.close();
+      Stage.WRITE.end();
     }
   }
 
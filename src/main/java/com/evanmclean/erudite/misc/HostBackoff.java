@@ -0,0 +1,143 @@
+package com.evanmclean.erudite.misc;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Keeps track of hosts that are failing, so we can stop trying to talk to them
+ * for a while instead of waiting out a timeout on every request. Thread safe.
+ * </p>
+ *
+ * <p>
+ * Once a host has failed a number of times in a row it is blocked (the circuit
+ * is &ldquo;open&rdquo;) for a back off period. When that expires a single
+ * request is let through to test the host. If that succeeds the host is back
+ * to normal, otherwise it is blocked again for twice as long (up to a
+ * maximum.)
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+public final class HostBackoff
+{
+  private static class State
+  {
+    int failures;
+    long delay;
+    long blockedUntil;
+  }
+
+  /**
+   * Get the (lower case) host name for a URL, plus the port if one is
+   * specified, suitable for passing to the other methods.
+   *
+   * @param url
+   *        The URL.
+   * @return The host name, or the URL itself if it could not be parsed.
+   */
+  public static String host( final String url )
+  {
+    try
+    {
+      final URL u = new URL(url);
+      final String host = u.getHost().toLowerCase();
+      return (u.getPort() < 0) ? host : (host + ':' + u.getPort());
+    }
+    catch ( MalformedURLException ex )
+    {
+      return url;
+    }
+  }
+
+  private static long now()
+  {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+  }
+
+  private final int threshold;
+  private final long initialDelay;
+  private final long maxDelay;
+  private final Map<String, State> states = new HashMap<String, State>();
+
+  /**
+   * @param threshold
+   *        The number of failures in a row before a host is blocked.
+   * @param initial_delay
+   *        How long to initially block a host for (in milliseconds.)
+   * @param max_delay
+   *        The maximum time to block a host for (in milliseconds.)
+   */
+  public HostBackoff( final int threshold, final long initial_delay,
+      final long max_delay )
+  {
+    this.threshold = Math.max(1, threshold);
+    this.initialDelay = Math.max(1L, initial_delay);
+    this.maxDelay = Math.max(this.initialDelay, max_delay);
+  }
+
+  /**
+   * Check if a request to a host should be attempted. If the host has been
+   * blocked but its back off period has expired, this lets one request
+   * through and keeps the host blocked until it has reported back through
+   * {@link #success(String)} or {@link #failure(String)}.
+   *
+   * @param host
+   *        The host name.
+   * @return Zero if the request should go ahead, otherwise the number of
+   *         milliseconds until the host will be tried again.
+   */
+  public synchronized long blockedFor( final String host )
+  {
+    final State state = states.get(host);
+    if ( (state == null) || (state.blockedUntil <= 0L) )
+      return 0L;
+    final long now = now();
+    if ( state.blockedUntil > now )
+      return state.blockedUntil - now;
+    // Let this one through as a test, but hold off everyone else.
+    state.blockedUntil = now + state.delay;
+    return 0L;
+  }
+
+  /**
+   * Record a failed request to a host. Only failures that suggest the host is
+   * down or overloaded (such as timeouts, refused connections or server
+   * errors) should be recorded.
+   *
+   * @param host
+   *        The host name.
+   */
+  public synchronized void failure( final String host )
+  {
+    State state = states.get(host);
+    if ( state == null )
+    {
+      state = new State();
+      states.put(host, state);
+    }
+    ++state.failures;
+    if ( state.failures < threshold )
+      return;
+    state.delay = (state.delay <= 0L) ? initialDelay
+        : Math.min(maxDelay, state.delay * 2L);
+    state.blockedUntil = now() + state.delay;
+  }
+
+  /**
+   * Record a successful request to a host (any response from the server, even
+   * an error such as &ldquo;not found&rdquo;, shows the host is up.)
+   *
+   * @param host
+   *        The host name.
+   */
+  public synchronized void success( final String host )
+  {
+    states.remove(host);
+  }
+}
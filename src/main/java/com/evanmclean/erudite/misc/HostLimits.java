@@ -0,0 +1,111 @@
+package com.evanmclean.erudite.misc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Keeps requests to each host within a rate limit, and holds off all requests
+ * to a host after it has told us to slow down (e.g., with a
+ * <code>Retry-After</code> header.) Thread safe.
+ * </p>
+ *
+ * <p>
+ * The rate limit is a token bucket: a host starts with <code>burst</code>
+ * tokens, each request takes one, and they are put back at the rate given,
+ * so short bursts go through straight away but the average rate is limited.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+final class HostLimits
+{
+  private static class State
+  {
+    final double perMilli;
+    final double burst;
+    double tokens;
+    long refilled;
+    long pausedUntil;
+
+    State( final int per_minute, final int burst )
+    {
+      this.perMilli = per_minute / 60000.0;
+      this.burst = Math.max(1, burst);
+      this.tokens = this.burst;
+      this.refilled = now();
+    }
+  }
+
+  static long now()
+  {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+  }
+
+  private final Map<String, State> states = new HashMap<String, State>();
+
+  /**
+   * Take the go ahead for a request to a host.
+   *
+   * @param host
+   *        The host name.
+   * @param per_minute
+   *        The number of requests per minute allowed to the host, or zero
+   *        for no limit.
+   * @param burst
+   *        The number of requests that can be made at once.
+   * @return Zero if the request can go ahead, otherwise the number of
+   *         milliseconds to wait before asking again.
+   */
+  synchronized long acquire( final String host, final int per_minute,
+      final int burst )
+  {
+    State state = states.get(host);
+    if ( state == null )
+    {
+      if ( per_minute <= 0 )
+        return 0L;
+      state = new State(per_minute, burst);
+      states.put(host, state);
+    }
+
+    final long now = now();
+    if ( state.pausedUntil > now )
+      return state.pausedUntil - now;
+    if ( state.perMilli <= 0.0 )
+      return 0L;
+
+    state.tokens = Math.min(state.burst, state.tokens
+        + ((now - state.refilled) * state.perMilli));
+    state.refilled = now;
+    if ( state.tokens >= 1.0 )
+    {
+      state.tokens -= 1.0;
+      return 0L;
+    }
+    return Math.max(1L, (long) Math.ceil((1.0 - state.tokens)
+        / state.perMilli));
+  }
+
+  /**
+   * Hold off all requests to a host for a while.
+   *
+   * @param host
+   *        The host name.
+   * @param millis
+   *        How long to hold off for.
+   */
+  synchronized void pause( final String host, final long millis )
+  {
+    State state = states.get(host);
+    if ( state == null )
+    {
+      state = new State(0, 1);
+      states.put(host, state);
+    }
+    state.pausedUntil = Math.max(state.pausedUntil, now() + millis);
+  }
+}
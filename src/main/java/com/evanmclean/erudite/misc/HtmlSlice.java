@@ -0,0 +1,317 @@
+package com.evanmclean.erudite.misc;
+
+import org.jsoup.Jsoup;
+import org.jsoup.helper.StringUtil;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import com.evanmclean.evlib.lang.Str;
+
+/**
+ * <p>
+ * Pulls a single element out of a HTML page without parsing the whole page.
+ * The page is scanned for the element's start tag, skipping over comments,
+ * scripts and style sheets, then on to its matching end tag, and only that
+ * part of the page is parsed. Navigation, scripts and the like are never
+ * turned into nodes, which saves a lot of memory and time on big pages.
+ * </p>
+ *
+ * <p>
+ * Links in the element are resolved against the page's
+ * <code>&lt;base href&gt;</code> if it has one, as they would be in the whole
+ * page. If the element cannot be found this way (e.g., the page is badly
+ * broken), the whole page is parsed as usual.
+ * </p>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+public final class HtmlSlice
+{
+  /**
+   * Get the element with the ID from a HTML page.
+   *
+   * @param html
+   *        The HTML page.
+   * @param id
+   *        The ID of the element.
+   * @param base_uri
+   *        The URL of the page, for resolving relative links.
+   * @return The element, or <code>null</code> if there isn't one.
+   */
+  public static Element getElementById( final String html, final String id,
+      final String base_uri )
+  {
+    final String slice = slice(html, id);
+    if ( slice != null )
+    {
+      final Element el = Jsoup.parseBodyFragment(slice,
+        baseUri(html, base_uri)).getElementById(id);
+      if ( el != null )
+        return el;
+    }
+    final Document doc = Jsoup.parse(html, base_uri);
+    return doc.getElementById(id);
+  }
+
+  /**
+   * The HTML of the element with the ID, from its start tag to its end tag.
+   *
+   * @param html
+   *        The HTML page.
+   * @param id
+   *        The ID of the element.
+   * @return The HTML of the element, or <code>null</code> if it wasn't found
+   *         (or has no end tag.)
+   */
+  public static String slice( final String html, final String id )
+  {
+    final Scanner scanner = new Scanner(html);
+    // Find the start tag.
+    while ( scanner.next() )
+      if ( (!scanner.end) && id.equals(scanner.id) )
+        break;
+    if ( scanner.tag == null )
+      return null;
+
+    final int start = scanner.start;
+    final String name = scanner.tag;
+    if ( scanner.selfClosing || isVoid(name) )
+      return html.substring(start, scanner.pos);
+
+    // Find the matching end tag.
+    int depth = 1;
+    while ( scanner.next() )
+      if ( name.equals(scanner.tag) )
+      {
+        if ( !scanner.end )
+        {
+          if ( !scanner.selfClosing )
+            ++depth;
+        }
+        else if ( --depth <= 0 )
+        {
+          return html.substring(start, scanner.pos);
+        }
+      }
+    return null;
+  }
+
+  /**
+   * The URI to resolve links in the page against: the first
+   * <code>&lt;base href&gt;</code> in the page (as jsoup does), otherwise the
+   * URL of the page.
+   */
+  private static String baseUri( final String html, final String base_uri )
+  {
+    final Scanner scanner = new Scanner(html);
+    while ( (scanner.pos = scanner.indexOfIgnoreCase("<base",
+      scanner.pos)) >= 0 )
+    {
+      if ( !scanner.next() )
+        break;
+      if ( "base".equals(scanner.tag) && (!scanner.end)
+          && Str.isNotEmpty(scanner.href) )
+      {
+        final String href = StringUtil.resolve(base_uri, scanner.href.trim());
+        return Str.isEmpty(href) ? base_uri : href;
+      }
+    }
+    return base_uri;
+  }
+
+  private static boolean isVoid( final String name )
+  {
+    return "img".equals(name) || "br".equals(name) || "hr".equals(name)
+        || "input".equals(name) || "meta".equals(name) || "link".equals(name);
+  }
+
+  /**
+   * Steps through the tags of a page. After each call to {@link #next()},
+   * the fields describe the tag found.
+   */
+  private static class Scanner
+  {
+    private final String html;
+    private final int len;
+    int pos;
+    int start;
+    String tag;
+    String id;
+    String href;
+    boolean end;
+    boolean selfClosing;
+
+    Scanner( final String html )
+    {
+      this.html = html;
+      this.len = html.length();
+    }
+
+    /**
+     * Move to the next start or end tag.
+     *
+     * @return False if there are no more tags.
+     */
+    boolean next()
+    {
+      tag = null;
+      id = null;
+      href = null;
+      while ( true )
+      {
+        final int lt = html.indexOf('<', pos);
+        if ( (lt < 0) || (lt + 1 >= len) )
+        {
+          pos = len;
+          return false;
+        }
+        pos = lt + 1;
+        final char ch = html.charAt(pos);
+        if ( ch == '!' )
+        {
+          // Comment, doctype or CDATA.
+          final int close = html.startsWith("!--", pos) ? html.indexOf("-->",
+            pos + 3) : html.indexOf('>', pos);
+          if ( close < 0 )
+          {
+            pos = len;
+            return false;
+          }
+          pos = close + 1;
+          continue;
+        }
+        final boolean is_end = (ch == '/');
+        final int name_start = is_end ? pos + 1 : pos;
+        if ( (name_start >= len) || (!isLetter(html.charAt(name_start))) )
+          continue; // Just a stray '<'.
+        int xi = name_start + 1;
+        while ( (xi < len) && isNameChar(html.charAt(xi)) )
+          ++xi;
+
+        start = lt;
+        tag = html.substring(name_start, xi).toLowerCase();
+        end = is_end;
+        selfClosing = false;
+        pos = xi;
+        if ( !attributes() )
+          return false;
+
+        if ( (!end) && ("script".equals(tag) || "style".equals(tag)) )
+        {
+          // Skip the contents, which can have anything in them.
+          final String name = tag;
+          final int close = indexOfIgnoreCase("</" + name, pos);
+          if ( close < 0 )
+          {
+            pos = len;
+            return false;
+          }
+          final int gt = html.indexOf('>', close);
+          pos = (gt < 0) ? len : gt + 1;
+          tag = name;
+        }
+        return true;
+      }
+    }
+
+    /**
+     * Read the attributes up to the end of the tag, noting the ID.
+     *
+     * @return False if the tag isn't finished.
+     */
+    private boolean attributes()
+    {
+      while ( pos < len )
+      {
+        final char ch = html.charAt(pos);
+        if ( ch == '>' )
+        {
+          ++pos;
+          return true;
+        }
+        if ( (ch == '/') && (pos + 1 < len) && (html.charAt(pos + 1) == '>') )
+        {
+          selfClosing = true;
+          pos += 2;
+          return true;
+        }
+        if ( Character.isWhitespace(ch) || (ch == '/') )
+        {
+          ++pos;
+          continue;
+        }
+
+        final int name_start = pos;
+        while ( (pos < len) && (!Character.isWhitespace(html.charAt(pos)))
+            && ("=>/".indexOf(html.charAt(pos)) < 0) )
+          ++pos;
+        final String name = html.substring(name_start, pos);
+        while ( (pos < len) && Character.isWhitespace(html.charAt(pos)) )
+          ++pos;
+        if ( (pos >= len) || (html.charAt(pos) != '=') )
+          continue;
+        ++pos;
+        while ( (pos < len) && Character.isWhitespace(html.charAt(pos)) )
+          ++pos;
+        if ( pos >= len )
+          break;
+
+        final String value;
+        final char quote = html.charAt(pos);
+        if ( (quote == '"') || (quote == '\'') )
+        {
+          final int close = html.indexOf(quote, pos + 1);
+          if ( close < 0 )
+            break;
+          value = html.substring(pos + 1, close);
+          pos = close + 1;
+        }
+        else
+        {
+          final int value_start = pos;
+          while ( (pos < len) && (!Character.isWhitespace(html.charAt(pos)))
+              && (html.charAt(pos) != '>') )
+            ++pos;
+          value = html.substring(value_start, pos);
+        }
+        if ( "id".equalsIgnoreCase(name) )
+          id = value;
+        else if ( "href".equalsIgnoreCase(name) )
+          href = value;
+      }
+      pos = len;
+      return false;
+    }
+
+    private int indexOfIgnoreCase( final String str, final int from )
+    {
+      final int slen = str.length();
+      int xi = from;
+      while ( (xi = html.indexOf('<', xi)) >= 0 )
+      {
+        if ( html.regionMatches(true, xi, str, 0, slen) )
+          return xi;
+        ++xi;
+      }
+      return -1;
+    }
+
+    private static boolean isLetter( final char ch )
+    {
+      return ((ch >= 'a') && (ch <= 'z')) || ((ch >= 'A') && (ch <= 'Z'));
+    }
+
+    private static boolean isNameChar( final char ch )
+    {
+      return isLetter(ch) || ((ch >= '0') && (ch <= '9')) || (ch == '-')
+          || (ch == ':');
+    }
+  }
+
+  private HtmlSlice()
+  {
+    // empty
+  }
+}
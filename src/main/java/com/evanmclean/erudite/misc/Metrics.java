@@ -0,0 +1,501 @@
+package com.evanmclean.erudite.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.LoggerFactory;
+
+import com.evanmclean.evlib.charset.Charsets;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * A small registry of counters, gauges and timers, which can be exposed in the
+ * Prometheus text format either from an embedded HTTP endpoint (see
+ * {@link #serve(String, int)}) or as a file for the node_exporter textfile
+ * collector (see {@link #writeTextfile(File)}.) Thread safe.
+ * </p>
+ *
+ * <p>
+ * Metrics are created once (usually as static constants) with the names of
+ * their labels, and then updated with the label values. e.g.,
+ * </p>
+ *
+ * <pre>
+ * private static final Metrics.Counter REQUESTS = Metrics.counter(
+ *   &quot;erudite_http_requests_total&quot;, &quot;HTTP requests.&quot;, &quot;host&quot;);
+ * ...
+ * REQUESTS.inc(host);
+ * </pre>
+ *
+ * @author Evan M<sup>c</sup>Lean,
+ *         <a href="http://evanmclean.com/" target="_blank">M<sup>c</sup>Lean
+ *         Computer Services</a>
+ */
+public final class Metrics
+{
+  /**
+   * A count of events that only goes up.
+   */
+  public static final class Counter extends Metric<AtomicLong>
+  {
+    Counter( final String name, final String help,
+        final ImmutableList<String> label_names )
+    {
+      super(name, help, "counter", label_names);
+    }
+
+    /**
+     * Add one to the count.
+     *
+     * @param label_values
+     *        The values of the labels, in the same order as the label names.
+     */
+    public void inc( final String... label_values )
+    {
+      child(label_values).incrementAndGet();
+    }
+
+    @Override
+    AtomicLong create()
+    {
+      return new AtomicLong();
+    }
+
+    @Override
+    void write( final StringBuilder buff, final String labels,
+        final AtomicLong child )
+    {
+      line(buff, name, labels, child.get());
+    }
+  }
+
+  /**
+   * A value that can go up and down, such as the number of running processes.
+   */
+  public static final class Gauge extends Metric<AtomicLong>
+  {
+    Gauge( final String name, final String help,
+        final ImmutableList<String> label_names )
+    {
+      super(name, help, "gauge", label_names);
+    }
+
+    /**
+     * Subtract one from the value.
+     *
+     * @param label_values
+     *        The values of the labels, in the same order as the label names.
+     */
+    public void dec( final String... label_values )
+    {
+      child(label_values).decrementAndGet();
+    }
+
+    /**
+     * Add one to the value.
+     *
+     * @param label_values
+     *        The values of the labels, in the same order as the label names.
+     */
+    public void inc( final String... label_values )
+    {
+      child(label_values).incrementAndGet();
+    }
+
+    @Override
+    AtomicLong create()
+    {
+      return new AtomicLong();
+    }
+
+    @Override
+    void write( final StringBuilder buff, final String labels,
+        final AtomicLong child )
+    {
+      line(buff, name, labels, child.get());
+    }
+  }
+
+  /**
+   * Times how long things take. Exposed as a Prometheus summary (a count and a
+   * sum in seconds.)
+   */
+  public static final class Timer extends Metric<AtomicLong[]>
+  {
+    Timer( final String name, final String help,
+        final ImmutableList<String> label_names )
+    {
+      super(name, help, "summary", label_names);
+    }
+
+    /**
+     * Record a time.
+     *
+     * @param nanos
+     *        The time taken in nanoseconds (usually the difference between two
+     *        calls to {@link System#nanoTime()}.)
+     * @param label_values
+     *        The values of the labels, in the same order as the label names.
+     */
+    public void record( final long nanos, final String... label_values )
+    {
+      final AtomicLong[] child = child(label_values);
+      child[0].incrementAndGet();
+      child[1].addAndGet(nanos);
+    }
+
+    /**
+     * Record the time since <code>start</code>.
+     *
+     * @param start
+     *        The result of a call to {@link System#nanoTime()} when the thing
+     *        being timed started.
+     * @param label_values
+     *        The values of the labels, in the same order as the label names.
+     */
+    public void since( final long start, final String... label_values )
+    {
+      record(System.nanoTime() - start, label_values);
+    }
+
+    @Override
+    AtomicLong[] create()
+    {
+      return new AtomicLong[] { new AtomicLong(), new AtomicLong() };
+    }
+
+    @Override
+    void write( final StringBuilder buff, final String labels,
+        final AtomicLong[] child )
+    {
+      line(buff, name + "_count", labels, child[0].get());
+      line(buff, name + "_sum", labels, child[1].get() / 1e9);
+    }
+  }
+
+  abstract static class Metric<T>
+  {
+    final String name;
+    private final String help;
+    private final String type;
+    private final ImmutableList<String> labelNames;
+    private final ConcurrentMap<List<String>, T> children = new ConcurrentHashMap<List<String>, T>();
+
+    Metric( final String name, final String help, final String type,
+        final ImmutableList<String> label_names )
+    {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+      this.labelNames = label_names;
+    }
+
+    T child( final String... label_values )
+    {
+      if ( label_values.length != labelNames.size() )
+        throw new IllegalArgumentException("Expected " + labelNames.size()
+            + " label values for " + name);
+      final List<String> key = Arrays.asList(label_values);
+      T child = children.get(key);
+      if ( child == null )
+      {
+        final T newchild = create();
+        child = children.putIfAbsent(key, newchild);
+        if ( child == null )
+          child = newchild;
+      }
+      return child;
+    }
+
+    abstract T create();
+
+    void write( final StringBuilder buff )
+    {
+      if ( children.isEmpty() )
+        return;
+      buff.append("# HELP ").append(name).append(' ').append(help)
+          .append('\n');
+      buff.append("# TYPE ").append(name).append(' ').append(type)
+          .append('\n');
+      for ( final Map.Entry<List<String>, T> entry : children.entrySet() )
+        write(buff, labels(labelNames, entry.getKey()), entry.getValue());
+    }
+
+    abstract void write( StringBuilder buff, String labels, T child );
+  }
+
+  private static final class CallbackGauge extends Metric<Object>
+  {
+    private final Supplier<? extends Number> supplier;
+
+    CallbackGauge( final String name, final String help,
+        final Supplier<? extends Number> supplier )
+    {
+      super(name, help, "gauge", ImmutableList.<String> of());
+      this.supplier = supplier;
+      child(); // So it is always written.
+    }
+
+    @Override
+    Object create()
+    {
+      return Boolean.TRUE;
+    }
+
+    @Override
+    void write( final StringBuilder buff, final String labels,
+        final Object child )
+    {
+      line(buff, name, labels, supplier.get().doubleValue());
+    }
+  }
+
+  private static final ConcurrentMap<String, Metric<?>> metrics = new ConcurrentSkipListMap<String, Metric<?>>();
+  private static HttpServer server;
+
+  /**
+   * Create (or get the existing) counter.
+   *
+   * @param name
+   *        The name of the metric.
+   * @param help
+   *        A description of the metric.
+   * @param label_names
+   *        The names of the labels.
+   * @return The counter.
+   */
+  public static Counter counter( final String name, final String help,
+      final String... label_names )
+  {
+    return register(new Counter(name, help, ImmutableList.copyOf(label_names)));
+  }
+
+  /**
+   * Create (or get the existing) gauge.
+   *
+   * @param name
+   *        The name of the metric.
+   * @param help
+   *        A description of the metric.
+   * @param label_names
+   *        The names of the labels.
+   * @return The gauge.
+   */
+  public static Gauge gauge( final String name, final String help,
+      final String... label_names )
+  {
+    return register(new Gauge(name, help, ImmutableList.copyOf(label_names)));
+  }
+
+  /**
+   * Create a gauge that gets its value when the metrics are written. Replaces
+   * any previous gauge of the same name.
+   *
+   * @param name
+   *        The name of the metric.
+   * @param help
+   *        A description of the metric.
+   * @param supplier
+   *        Supplies the value of the gauge.
+   */
+  public static void gauge( final String name, final String help,
+      final Supplier<? extends Number> supplier )
+  {
+    metrics.put(name, new CallbackGauge(name, help, supplier));
+  }
+
+  /**
+   * Is the HTTP server started by {@link #serve(String, int)} running?
+   *
+   * @return True if the metrics are being served.
+   */
+  public static synchronized boolean isServing()
+  {
+    return server != null;
+  }
+
+  /**
+   * All the metrics in the Prometheus text format.
+   *
+   * @return The metrics.
+   */
+  public static String scrape()
+  {
+    final StringBuilder buff = new StringBuilder();
+    for ( final Metric<?> metric : ImmutableMap.copyOf(metrics).values() )
+      metric.write(buff);
+    return buff.toString();
+  }
+
+  /**
+   * Start an HTTP server that serves the metrics at <code>/metrics</code>.
+   * Runs on daemon threads until {@link #stop()} is called.
+   *
+   * @param address
+   *        The address to listen on (e.g., <code>127.0.0.1</code>.)
+   * @param port
+   *        The port to listen on.
+   * @throws IOException
+   */
+  public static synchronized void serve( final String address, final int port )
+    throws IOException
+  {
+    stop();
+    final HttpServer srv = HttpServer.create(new InetSocketAddress(address,
+        port), 10);
+    srv.createContext("/metrics", new HttpHandler() {
+      @Override
+      public void handle( final HttpExchange exchange ) throws IOException
+      {
+        try
+        {
+          final byte[] body = scrape().getBytes(Charsets.UTF8);
+          exchange.getResponseHeaders().set("Content-Type",
+            "text/plain; version=0.0.4; charset=utf-8");
+          exchange.sendResponseHeaders(200, body.length);
+          final OutputStream out = exchange.getResponseBody();
+          out.write(body);
+          out.close();
+        }
+        finally
+        {
+          exchange.close();
+        }
+      }
+    });
+    srv.setExecutor(Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread( final Runnable run )
+      {
+        final Thread thrd = new Thread(run, "eruditemetrics");
+        thrd.setDaemon(true);
+        return thrd;
+      }
+    }));
+    srv.start();
+    server = srv;
+    LoggerFactory.getLogger(Metrics.class).trace(
+      "Serving metrics on http://{}:{}/metrics", address,
+      String.valueOf(port));
+  }
+
+  /**
+   * Stop the HTTP server started by {@link #serve(String, int)}, if any.
+   */
+  public static synchronized void stop()
+  {
+    if ( server != null )
+    {
+      server.stop(0);
+      server = null;
+    }
+  }
+
+  /**
+   * Create (or get the existing) timer.
+   *
+   * @param name
+   *        The name of the metric (without a unit, <code>_seconds</code> is
+   *        added.)
+   * @param help
+   *        A description of the metric.
+   * @param label_names
+   *        The names of the labels.
+   * @return The timer.
+   */
+  public static Timer timer( final String name, final String help,
+      final String... label_names )
+  {
+    return register(new Timer(name + "_seconds", help, ImmutableList
+        .copyOf(label_names)));
+  }
+
+  /**
+   * Write all the metrics to a file for the node_exporter textfile collector.
+   * The file is written to a temporary file and renamed, so the collector
+   * never sees a partial file. The name should end in <code>.prom</code>.
+   *
+   * @param file
+   *        The file to write.
+   * @throws IOException
+   */
+  public static void writeTextfile( final File file ) throws IOException
+  {
+    final File tmp = new File(file.getPath() + ".tmp");
+    Files.asCharSink(tmp, Charsets.UTF8).write(scrape());
+    if ( !tmp.renameTo(file) )
+    {
+      file.delete();
+      if ( !tmp.renameTo(file) )
+        throw new IOException("Could not rename " + tmp + " to " + file);
+    }
+  }
+
+  private static String escape( final String value )
+  {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"")
+        .replace("\n", "\\n");
+  }
+
+  private static String labels( final List<String> names,
+      final List<String> values )
+  {
+    if ( names.isEmpty() )
+      return "";
+    final StringBuilder buff = new StringBuilder("{");
+    for ( int xi = 0; xi < names.size(); ++xi )
+    {
+      if ( xi > 0 )
+        buff.append(',');
+      buff.append(names.get(xi)).append("=\"")
+          .append(escape(String.valueOf(values.get(xi)))).append('"');
+    }
+    return buff.append('}').toString();
+  }
+
+  private static void line( final StringBuilder buff, final String name,
+      final String labels, final double value )
+  {
+    buff.append(name).append(labels).append(' ');
+    if ( value == Math.rint(value) && !Double.isInfinite(value) )
+      buff.append((long) value);
+    else
+      buff.append(value);
+    buff.append('\n');
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static <M extends Metric<?>> M register( final M metric )
+  {
+    final Metric<?> prev = metrics.putIfAbsent(metric.name, metric);
+    if ( prev == null )
+      return metric;
+    if ( !prev.getClass().equals(metric.getClass()) )
+      throw new IllegalStateException("Metric " + metric.name
+          + " already registered as a different type.");
+    return (M) prev;
+  }
+
+  private Metrics()
+  {
+    // empty
+  }
+}
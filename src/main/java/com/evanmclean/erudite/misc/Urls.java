@@ -0,0 +1,94 @@
+package com.evanmclean.erudite.misc;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import com.evanmclean.evlib.lang.Str;
+
+/**
+ * Some functions for dealing with URLs.
+ *
+ * @author Evan M<sup>c</sup>Lean, <a href="http://evanmclean.com/"
+ *         target="_blank">M<sup>c</sup>Lean Computer Services</a>
+ */
+public final class Urls
+{
+  /**
+   * <p>
+   * A key for a URL that is the same for the different ways the same article
+   * tends to be saved, for spotting duplicates. Not a usable URL.
+   * </p>
+   *
+   * <p>
+   * The scheme, a leading &ldquo;www.&rdquo;, the default port, the fragment,
+   * a trailing slash and tracking parameters (<code>utm_*</code>,
+   * <code>fbclid</code> and the like) are dropped, and the host is lower
+   * cased. Examples:
+   * </p>
+   *
+   * <pre>
+   *   http://www.Example.com/a/?utm_id=x&amp;id=3#top => "example.com/a?id=3"
+   *   https://example.com:443/a?id=3                 => "example.com/a?id=3"
+   * </pre>
+   *
+   * @param url
+   *        The URL.
+   * @return The key, or the URL itself if it could not be parsed (or
+   *         <code>null</code> if it is <code>null</code>.)
+   */
+  public static String canonical( final String url )
+  {
+    if ( url == null )
+      return null;
+    final URL u;
+    try
+    {
+      u = new URL(url.trim());
+    }
+    catch ( MalformedURLException ex )
+    {
+      return url;
+    }
+
+    final StringBuilder buff = new StringBuilder(url.length());
+    String host = u.getHost().toLowerCase();
+    if ( host.startsWith("www.") )
+      host = host.substring(4);
+    buff.append(host);
+    if ( (u.getPort() >= 0) && (u.getPort() != u.getDefaultPort()) )
+      buff.append(':').append(u.getPort());
+
+    String path = u.getPath();
+    while ( path.endsWith("/") )
+      path = path.substring(0, path.length() - 1);
+    buff.append(path);
+
+    final String query = u.getQuery();
+    if ( Str.isNotEmpty(query) )
+    {
+      char sep = '?';
+      for ( final String param : query.split("&") )
+        if ( (param.length() > 0) && (!isTracking(param)) )
+        {
+          buff.append(sep).append(param);
+          sep = '&';
+        }
+    }
+    return buff.toString();
+  }
+
+  private static boolean isTracking( final String param )
+  {
+    final int eq = param.indexOf('=');
+    final String name = ((eq < 0) ? param : param.substring(0, eq))
+        .toLowerCase();
+    return name.startsWith("utm_") || "fbclid".equals(name)
+        || "gclid".equals(name) || "mc_cid".equals(name)
+        || "mc_eid".equals(name) || "_ga".equals(name);
+  }
+
+  private Urls()
+  {
+    // empty
+  }
+}
@@ -73,7 +73,7 @@ public class Pocket
       conn.ignoreHttpErrors(true);
       conn.ignoreContentType(true);
       conn.data(ImmutableMap.of("consumer_key", key, "code", code));
-      final Response resp = conn.execute();
+      final Response resp = Conn.execute(conn);
       if ( resp.statusCode() != 200 )
         throw new IOException("POST " + url + " returned " + resp.statusCode()
             + ": " + resp.statusMessage());
@@ -276,7 +276,7 @@ public class Pocket
       conn.data("feed_id", user, "password", pass);
       conn.method(Connection.Method.POST);
 
-      Connection.Response resp = conn.execute();
+      Connection.Response resp = Conn.execute(conn);
       final ImmutableMap.Builder<String, String> bldr = ImmutableMap.builder();
       for ( final Map.Entry<String, String> entry : resp.cookies().entrySet() )
         if ( entry.getKey().startsWith("sess_") )
@@ -295,7 +295,7 @@ public class Pocket
       conn.ignoreContentType(true);
       conn.data(ImmutableMap.of("consumer_key", key, "redirect_uri",
         "pocketapp1234:authorizationFinished"));
-      final Response resp = conn.execute();
+      final Response resp = Conn.execute(conn);
       if ( resp.statusCode() != 200 )
         throw new IOException("POST " + url + " returned " + resp.statusCode()
             + ": " + resp.statusMessage());
@@ -309,7 +309,13 @@ public class Pocket
     return new Authoriser(key, code, cookies);
   }
 
-  static final String BASE_URL = "https://getpocket.com/";
+  /**
+   * Where to find Pocket. Can be overridden with the
+   * <code>erudite.pocket.url</code> system property (e.g., to point at a
+   * stand-in server for testing.)
+   */
+  static final String BASE_URL = System.getProperty("erudite.pocket.url",
+    "https://getpocket.com/");
 
   static final String API_BASE_URL = BASE_URL + "v3";
 
@@ -319,6 +325,7 @@ public class Pocket
   private final String accessToken;
   private final TitleMunger titleMunger;
   private final Filter filter;
+  private final boolean logData;
   private final ObjectMapper json = new ObjectMapper();
   private final ImmutableMap<String, String> immutableGetArgs = ImmutableMap
       .of("detailType", "complete");
@@ -334,9 +341,11 @@ public class Pocket
    * @param filter
    * @param title_munger
    *        A title munger to use on article titles.
+   * @param log_data
+   *        Log (at trace level) all the data returned by Pocket API calls.
    */
   public Pocket( final Session session, final Filter filter,
-      final TitleMunger title_munger )
+      final TitleMunger title_munger, final boolean log_data )
   {
     if ( !(session instanceof PocketSession) )
       throw new IllegalArgumentException("Invalid session object for Pocket.");
@@ -364,6 +373,7 @@ public class Pocket
     this.consumerKey = psession.getKey();
     this.accessToken = psession.getToken();
     this.scrapeCookies = psession.getCookies();
+    this.logData = log_data;
 
     json.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
     json.configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true);
@@ -418,7 +428,7 @@ public class Pocket
     conn.ignoreContentType(true);
     conn.data("consumer_key", consumerKey, "access_token", accessToken);
     conn.data(post_data);
-    final Response resp = conn.execute();
+    final Response resp = Conn.execute(conn);
     log.trace("Response {}: {}", resp.statusCode(), resp.statusMessage());
     if ( resp.statusCode() != 200 )
     {
@@ -448,14 +458,17 @@ public class Pocket
   private <T> T readValue( final InputStream in, final Class<T> cls )
     throws IOException
   {
+    final Logger log = LoggerFactory.getLogger(getClass());
+    if ( (!logData) || (!log.isTraceEnabled()) )
+      return json.readValue(in, cls);
+
     final ByteArrayInputOutputStream inout = new ByteArrayInputOutputStream();
     ByteStreams.copy(in, inout);
     {
       final StringWriter out = new StringWriter(inout.size());
       CharStreams.copy(new InputStreamReader(inout.getInputStream(),
           Charsets.UTF8), out);
-      LoggerFactory.getLogger(getClass()).trace("Data returned: {}",
-        out.toString());
+      log.trace("Data returned: {}", out.toString());
     }
     return json.readValue(inout.getInputStream(), cls);
   }
@@ -482,7 +495,7 @@ public class Pocket
     conn.data(post_data);
     for ( Map.Entry<String, String> entry : scrapeCookies.entrySet() )
       conn.cookie(entry.getKey(), entry.getValue());
-    final Response resp = conn.execute();
+    final Response resp = Conn.execute(conn);
     log.trace("Response {}: {}", resp.statusCode(), resp.statusMessage());
     if ( resp.statusCode() != 200 )
     {
@@ -211,7 +211,8 @@ class PocketSource implements Source
 
   PocketSource( final Session session, final Config config )
   {
-    pocket = new Pocket(session, makeFilter(config), config.getTitleMunger());
+    pocket = new Pocket(session, makeFilter(config), config.getTitleMunger(),
+        config.getBoolean("pocket.log.data", false));
     onCompleteAction = parseAction(config.getString("on.complete"));
     onErrorAction = parseAction(config.getString("on.error"));
   }